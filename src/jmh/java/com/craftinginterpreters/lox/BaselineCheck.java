@@ -0,0 +1,109 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares a JMH CSV result ({@code -rf csv}) against the checked-in baseline and exits with 1 on regressions
+ * or on baseline rows missing from the result.
+ *
+ * Gates the primary score of every benchmark (time per operation, lower is better) and
+ * the normalized allocation rate reported by the gc profiler ({@code -prof gc}).
+ * A baseline row without a result fails the check, so renamed benchmarks or changed parameters can't quietly turn
+ * the gate off; regenerate the baseline with them. New benchmarks without a baseline row are only reported.
+ *
+ * Usage: {@code java -cp target/benchmarks.jar com.craftinginterpreters.lox.BaselineCheck baseline.csv result.csv [maxRegressionPercent]}
+ */
+public class BaselineCheck {
+    private static final String ALLOCATION_METRIC = ":gc.alloc.rate.norm";
+    // allocation below this many bytes per operation is noise (e.g. the JMH infrastructure itself)
+    private static final double ALLOCATION_SLACK_BYTES = 64;
+    private static final double DEFAULT_MAX_REGRESSION_PERCENT = 15;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.out.println("Usage: BaselineCheck baseline.csv result.csv [maxRegressionPercent]");
+            System.exit(64);
+        }
+
+        Map<String, Double> baseline = read(args[0]);
+        Map<String, Double> result = read(args[1]);
+        double maxRegression = args.length == 3 ? Double.parseDouble(args[2]) : DEFAULT_MAX_REGRESSION_PERCENT;
+
+        int regressions = 0;
+        for (Map.Entry<String, Double> entry : result.entrySet()) {
+            String key = entry.getKey();
+            double current = entry.getValue();
+            Double expected = baseline.get(key);
+            if (expected == null) {
+                System.out.printf(Locale.ROOT, "NEW        %-90s %14.3f%n", key, current);
+                continue;
+            }
+
+            double allowed = expected * (1 + maxRegression / 100);
+            if (key.contains(ALLOCATION_METRIC)) allowed += ALLOCATION_SLACK_BYTES;
+
+            boolean regressed = current > allowed;
+            if (regressed) regressions++;
+            System.out.printf(Locale.ROOT, "%-10s %-90s %14.3f -> %14.3f (%+.1f%%)%n",
+                    regressed ? "REGRESSED" : "ok", key, expected, current, change(expected, current));
+        }
+        int missing = 0;
+        for (String key : baseline.keySet()) {
+            if (result.containsKey(key)) continue;
+            missing++;
+            System.out.printf("MISSING    %s%n", key);
+        }
+
+        if (regressions > 0) System.out.println(regressions + " regression(s) above " + maxRegression + "%");
+        if (missing > 0) System.out.println(missing + " baseline row(s) missing from the result");
+        if (regressions > 0 || missing > 0) System.exit(1);
+    }
+
+    private static double change(double expected, double current) {
+        return expected == 0 ? 0 : (current - expected) / expected * 100;
+    }
+
+    /**
+     * Reads the gated rows of a JMH CSV file keyed by benchmark name and parameter values
+     */
+    private static Map<String, Double> read(String path) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(path));
+        List<String> header = split(lines.get(0));
+        int scoreColumn = header.indexOf("Score");
+
+        Map<String, Double> rows = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isEmpty()) continue;
+            List<String> columns = split(line);
+            String benchmark = columns.get(0);
+            boolean primary = !benchmark.contains(":");
+            if (!primary && !benchmark.endsWith(ALLOCATION_METRIC)) continue;
+
+            StringBuilder key = new StringBuilder(benchmark);
+            for (int i = 0; i < header.size(); i++) {
+                if (header.get(i).startsWith("Param: ") && !columns.get(i).isEmpty()) {
+                    key.append(' ').append(header.get(i).substring("Param: ".length())).append('=').append(columns.get(i));
+                }
+            }
+            rows.put(key.toString(), Double.parseDouble(columns.get(scoreColumn)));
+        }
+        return rows;
+    }
+
+    private static List<String> split(String line) {
+        List<String> columns = new ArrayList<>();
+        for (String column : line.split(",", -1)) {
+            columns.add(column.startsWith("\"") && column.endsWith("\"") && column.length() > 1 ?
+                    column.substring(1, column.length() - 1) :
+                    column);
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,69 @@
+package com.craftinginterpreters.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the canonical workloads on all back ends. Sources are parsed and resolved once per trial,
+ * each invocation only executes them. The workloads don't print, results are kept in globals.
+ * Metered runs count {@link Fuel} that never runs out, unmetered runs skip the tick, the difference is the cost of
+ * metering.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class InterpreterBenchmark {
+    @Param({"fib", "while_loop", "string_concat", "closure_counter"})
+    String workload;
+
+    @Param({"interpreter", "vm", "jvm"})
+    String backend;
+
+    @Param({"unmetered", "metered"})
+    String fuel;
+
+    private Interpreter interpreter;
+    private List<Stmt> statements;
+    private VM vm;
+    private VmFunction script;
+    private Runnable compiled;
+
+    @Setup
+    public void setUp() {
+        statements = Workloads.parse(Workloads.load(workload));
+        interpreter = new Interpreter();
+        vm = new VM();
+        if (fuel.equals("metered")) {
+            interpreter.setFuel(Fuel.unlimited());
+            vm.setFuel(Fuel.unlimited());
+        }
+        script = new BytecodeCompiler(vm.globals).compile(statements);
+        if (backend.equals("jvm")) compiled = new JvmCompiler(interpreter).compile(statements);
+    }
+
+    @Benchmark
+    public void execute() {
+        if (backend.equals("vm")) {
+            vm.interpret(script);
+        } else if (backend.equals("jvm")) {
+            compiled.run();
+        } else {
+            interpreter.interpret(statements);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.craftinginterpreters.lox;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses already scanned tokens, so the numbers don't include {@link Scanner} time
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class ParserBenchmark {
+    private static final int NESTING_DEPTH = 100;
+
+    private List<Token> nestedExpression;
+    private List<Token> largeProgram;
+
+    @Setup
+    public void setUp() {
+        nestedExpression = new Scanner(Workloads.nestedExpression(NESTING_DEPTH)).scanTokens();
+        largeProgram = new Scanner(Workloads.large(100_000)).scanTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> nestedExpression() {
+        return new Parser(nestedExpression).parse();
+    }
+
+    @Benchmark
+    public List<Stmt> largeProgram() {
+        return new Parser(largeProgram).parse();
+    }
+}
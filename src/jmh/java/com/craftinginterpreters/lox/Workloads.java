@@ -0,0 +1,59 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Lox sources shared by the benchmarks. Programs live in {@code src/jmh/resources/workloads}.
+ */
+final class Workloads {
+    private Workloads() {
+    }
+
+    static String load(String name) {
+        String resource = "/workloads/" + name + ".lx";
+        try (InputStream in = Workloads.class.getResourceAsStream(resource)) {
+            if (in == null) throw new IllegalArgumentException("No workload " + resource);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * All the workloads concatenated over and over until the source is at least {@code minChars} long
+     */
+    static String large(int minChars) {
+        String unit = load("fib") + load("while_loop") + load("string_concat") + load("closure_counter");
+        StringBuilder source = new StringBuilder(minChars + unit.length());
+        while (source.length() < minChars) {
+            source.append(unit);
+        }
+        return source.toString();
+    }
+
+    /**
+     * An expression statement with {@code depth} levels of parentheses, e.g. {@code ((1 + 1) * 2) - 3;}
+     */
+    static String nestedExpression(int depth) {
+        String[] operators = {" + ", " * ", " - ", " / "};
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            source.append('(');
+        }
+        source.append('1');
+        for (int i = 0; i < depth; i++) {
+            source.append(operators[i % operators.length]).append(i + 1).append(')');
+        }
+        return source.append(';').toString();
+    }
+
+    static List<Stmt> parse(String source) {
+        List<Stmt> statements = new ConstantFolder().fold(new Parser(new Scanner(source).scanTokens()).parse());
+        new Resolver().resolve(statements);
+        return statements;
+    }
+}
@@ -0,0 +1,141 @@
+package com.craftinginterpreters.lox;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.craftinginterpreters.lox.AstWriter.*;
+
+/**
+ * Decodes a program written by {@link AstWriter}. The tree is the same as the one written, without annotations.
+ */
+class AstReader {
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private final DataInputStream in;
+    // every element of a list takes at least a byte, so no count read from a valid input is larger than this
+    private final long length;
+    private final List<String> strings = new ArrayList<>();
+    private int line = 0;
+
+    AstReader(DataInputStream in, long length) {
+        this.in = in;
+        this.length = length;
+    }
+
+    List<Stmt> read() throws IOException {
+        return readStatements();
+    }
+
+    private List<Stmt> readStatements() throws IOException {
+        int size = readSize();
+        List<Stmt> statements = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            statements.add(readStmt());
+        }
+        return statements;
+    }
+
+    private Stmt readStmt() throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case NULL: return null;
+            case BLOCK: return new Stmt.Block(readStatements());
+            case EXPRESSION: return new Stmt.Expression(readExpr());
+            case FUNCTION: {
+                Token name = readToken();
+                int arity = readSize();
+                List<Token> params = new ArrayList<>(arity);
+                for (int i = 0; i < arity; i++) {
+                    params.add(readToken());
+                }
+                return new Stmt.Function(name, params, readStatements());
+            }
+            case IF: return new Stmt.If(readExpr(), readStmt(), readStmt());
+            case PRINT: return new Stmt.Print(readExpr());
+            case RETURN: return new Stmt.Return(readToken(), readExpr());
+            case WHILE: return new Stmt.While(readToken(), readExpr(), readStmt());
+            case VAR: return new Stmt.Var(readToken(), readExpr());
+            case BREAK: return new Stmt.Break();
+            default: throw new IOException("Unknown statement tag " + tag);
+        }
+    }
+
+    private Expr readExpr() throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case NULL: return null;
+            case ASSIGN: return new Expr.Assign(readToken(), readExpr());
+            case BINARY: return new Expr.Binary(readExpr(), readToken(), readExpr());
+            case CALL: {
+                Expr callee = readExpr();
+                Token paren = readToken();
+                int size = readSize();
+                List<Expr> arguments = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    arguments.add(readExpr());
+                }
+                return new Expr.Call(callee, paren, arguments);
+            }
+            case GROUPING: return new Expr.Grouping(readExpr());
+            case LITERAL: return new Expr.Literal(readValue());
+            case LOGICAL: return new Expr.Logical(readExpr(), readToken(), readExpr());
+            case UNARY: return new Expr.Unary(readToken(), readExpr());
+            case CONDITIONAL: return new Expr.Conditional(readExpr(), readExpr(), readExpr());
+            case VARIABLE: return new Expr.Variable(readToken());
+            default: throw new IOException("Unknown expression tag " + tag);
+        }
+    }
+
+    private Token readToken() throws IOException {
+        int type = readInt();
+        if (type >= TOKEN_TYPES.length) throw new IOException("Unknown token type " + type);
+        String lexeme = readString();
+        Object literal = hasLiteral(TOKEN_TYPES[type]) ? readValue() : null;
+        int delta = readInt();
+        line += (delta >>> 1) ^ -(delta & 1);
+        return new Token(TOKEN_TYPES[type], lexeme, literal, line);
+    }
+
+    private Object readValue() throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case NIL: return null;
+            case FALSE: return false;
+            case TRUE: return true;
+            case NUMBER: return in.readDouble();
+            case STRING: return readString();
+            default: throw new IOException("Unknown literal tag " + tag);
+        }
+    }
+
+    private String readString() throws IOException {
+        int index = readInt();
+        if (index < strings.size()) return strings.get(index);
+        if (index > strings.size()) throw new IOException("String " + index + " read before it's defined");
+
+        byte[] bytes = new byte[readSize()];
+        in.readFully(bytes);
+        String value = new String(bytes, StandardCharsets.UTF_8);
+        strings.add(value);
+        return value;
+    }
+
+    private int readSize() throws IOException {
+        int size = readInt();
+        if (size < 0 || size > length) throw new IOException("Corrupt size " + size);
+        return size;
+    }
+
+    private int readInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed integer");
+    }
+}
@@ -0,0 +1,314 @@
+package com.craftinginterpreters.lox;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes a parsed program in the binary format {@link AstReader} decodes, used by the {@link ProgramCache}.
+ *
+ * Every node is a tag byte followed by its constructor fields in declaration order; annotation fields aren't written,
+ * the {@link Resolver} fills them in again. Integers are variable-length, strings (lexemes and string literals) are
+ * written once and referred to by their index afterwards. Token lines are written as the difference to the line of
+ * the previous token, and only number and string tokens have a literal.
+ */
+class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final int NULL = 0;
+
+    static final int BLOCK = 1;
+    static final int EXPRESSION = 2;
+    static final int FUNCTION = 3;
+    static final int IF = 4;
+    static final int PRINT = 5;
+    static final int RETURN = 6;
+    static final int WHILE = 7;
+    static final int VAR = 8;
+    static final int BREAK = 9;
+
+    static final int ASSIGN = 10;
+    static final int BINARY = 11;
+    static final int CALL = 12;
+    static final int GROUPING = 13;
+    static final int LITERAL = 14;
+    static final int LOGICAL = 15;
+    static final int UNARY = 16;
+    static final int CONDITIONAL = 17;
+    static final int VARIABLE = 18;
+
+    // literal values
+    static final int NIL = 0;
+    static final int FALSE = 1;
+    static final int TRUE = 2;
+    static final int NUMBER = 3;
+    static final int STRING = 4;
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>();
+    private int line = 0;
+
+    AstWriter(DataOutputStream out) {
+        this.out = out;
+    }
+
+    void write(List<Stmt> statements) throws IOException {
+        try {
+            writeStatements(statements);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        tag(BLOCK);
+        writeStatements(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        tag(EXPRESSION);
+        write(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        tag(FUNCTION);
+        write(stmt.name);
+        writeInt(stmt.params.size());
+        for (Token param : stmt.params) {
+            write(param);
+        }
+        writeStatements(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        tag(IF);
+        write(stmt.condition);
+        write(stmt.thenBranch);
+        write(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        tag(PRINT);
+        write(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        tag(RETURN);
+        write(stmt.keyword);
+        write(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        tag(WHILE);
+        write(stmt.keyword);
+        write(stmt.condition);
+        write(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        tag(VAR);
+        write(stmt.name);
+        write(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        tag(BREAK);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        tag(ASSIGN);
+        write(expr.name);
+        write(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        tag(BINARY);
+        write(expr.left);
+        write(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        tag(CALL);
+        write(expr.callee);
+        write(expr.paren);
+        writeInt(expr.arguments.size());
+        for (Expr argument : expr.arguments) {
+            write(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        tag(GROUPING);
+        write(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        tag(LITERAL);
+        writeValue(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        tag(LOGICAL);
+        write(expr.left);
+        write(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        tag(UNARY);
+        write(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitConditionalExpr(Expr.Conditional expr) {
+        tag(CONDITIONAL);
+        write(expr.condition);
+        write(expr.caseTrue);
+        write(expr.caseFalse);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        tag(VARIABLE);
+        write(expr.name);
+        return null;
+    }
+
+    private void writeStatements(List<Stmt> statements) {
+        writeInt(statements.size());
+        for (Stmt statement : statements) {
+            write(statement);
+        }
+    }
+
+    private void write(Stmt stmt) {
+        if (stmt == null) {
+            tag(NULL);
+        } else {
+            stmt.accept(this);
+        }
+    }
+
+    private void write(Expr expr) {
+        if (expr == null) {
+            tag(NULL);
+        } else {
+            expr.accept(this);
+        }
+    }
+
+    private void write(Token token) {
+        writeInt(token.getType().ordinal());
+        writeString(token.getLexeme());
+        if (hasLiteral(token.getType())) writeValue(token.getLiteral());
+        // zigzag, so small negative differences are small numbers too
+        int delta = token.getLine() - line;
+        writeInt((delta << 1) ^ (delta >> 31));
+        line = token.getLine();
+    }
+
+    static boolean hasLiteral(TokenType type) {
+        return type == TokenType.NUMBER || type == TokenType.STRING;
+    }
+
+    private void writeValue(Object value) {
+        if (value == null) {
+            tag(NIL);
+        } else if (value instanceof Boolean) {
+            tag((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Double) {
+            tag(NUMBER);
+            try {
+                out.writeDouble((Double) value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else if (value instanceof String) {
+            tag(STRING);
+            writeString((String) value);
+        } else {
+            throw new IllegalArgumentException("Can't write literal " + value);
+        }
+    }
+
+    /**
+     * A string is written the first time it's seen, later it's only its index
+     */
+    private void writeString(String value) {
+        Integer index = strings.get(value);
+        if (index != null) {
+            writeInt(index);
+            return;
+        }
+
+        writeInt(strings.size());
+        strings.put(value, strings.size());
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        try {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void tag(int tag) {
+        try {
+            out.writeByte(tag);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 7 bits a byte, the high bit set on all but the last byte
+     */
+    private void writeInt(int value) {
+        try {
+            while ((value & ~0x7f) != 0) {
+                out.writeByte((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Output for running a file: lines are collected and written to the channel once {@link #THRESHOLD} chars are
+ * buffered, and on {@link #flush()}. Like a {@link java.io.PrintStream} it never throws, once a write fails, e.g.
+ * because the reading end of a pipe was closed, the rest of the output is dropped.
+ */
+final class BufferedOutput implements OutputSink {
+    static final int THRESHOLD = 8192;
+
+    private final WritableByteChannel channel;
+    private final Charset charset;
+    private final StringBuilder buffer = new StringBuilder(THRESHOLD + 256);
+    private final String lineSeparator = System.lineSeparator();
+    private boolean failed = false;
+
+    BufferedOutput(WritableByteChannel channel, Charset charset) {
+        this.channel = channel;
+        this.charset = charset;
+    }
+
+    @Override
+    public void println(CharSequence text) {
+        buffer.append(text).append(lineSeparator);
+        if (buffer.length() >= THRESHOLD) flush();
+    }
+
+    @Override
+    public void println(double number) {
+        Values.appendNumber(buffer, number);
+        buffer.append(lineSeparator);
+        if (buffer.length() >= THRESHOLD) flush();
+    }
+
+    @Override
+    public void flush() {
+        if (buffer.length() == 0) return;
+        if (!failed) {
+            ByteBuffer bytes = charset.encode(buffer.toString());
+            try {
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+            } catch (IOException e) {
+                failed = true;
+            }
+        }
+        buffer.setLength(0);
+    }
+}
@@ -0,0 +1,542 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles the {@code Stmt}/{@code Expr} trees produced by the {@link Parser} into bytecode for the {@link VM}.
+ *
+ * Locals live on the VM stack, so the compiler tracks its own stack slots per function
+ * and turns variables captured by nested functions into upvalues.
+ * Expects the program to be checked by the {@link Resolver} already.
+ */
+class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_SLOTS = 256;
+
+    private final VmGlobals globals;
+    private final ErrorReporter reporter;
+    private FunctionState current;
+    private int line = 1;
+
+    BytecodeCompiler(VmGlobals globals) {
+        this(globals, new ErrorReporter(System.err));
+    }
+
+    BytecodeCompiler(VmGlobals globals, ErrorReporter reporter) {
+        this.globals = globals;
+        this.reporter = reporter;
+    }
+
+    /**
+     * @return top-level script as a function of zero arguments
+     */
+    VmFunction compile(List<Stmt> statements) {
+        current = new FunctionState(null);
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        return endFunction("script", 0);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.getLine();
+        declareVariable(stmt.name);
+        // the function is allowed to refer to itself before it is fully compiled
+        markInitialized();
+
+        FunctionState enclosing = current;
+        current = new FunctionState(enclosing);
+        beginScope();
+        for (Token param : stmt.params) {
+            declareVariable(param);
+            markInitialized();
+        }
+        for (Stmt statement : stmt.body) {
+            compile(statement);
+        }
+        List<UpvalueRef> upvalues = current.upvalues;
+        VmFunction function = endFunction(stmt.name.getLexeme(), stmt.params.size());
+
+        emitWithShort(OpCode.CLOSURE, makeConstant(function, stmt.name));
+        for (UpvalueRef upvalue : upvalues) {
+            emitByte((byte) (upvalue.isLocal ? 1 : 0));
+            emitByte((byte) upvalue.index);
+        }
+
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int thenJump = emitJump(OpCode.POP_JUMP_IF_FALSE);
+        compile(stmt.thenBranch);
+
+        if (stmt.elseBranch != null) {
+            int elseJump = emitJump(OpCode.JUMP);
+            patchJump(thenJump);
+            compile(stmt.elseBranch);
+            patchJump(elseJump);
+        } else {
+            patchJump(thenJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.getLine();
+        if (stmt.value != null) {
+            compile(stmt.value);
+        } else {
+            emit(OpCode.NIL);
+        }
+        emit(OpCode.RETURN);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = current.chunk.count();
+        compile(stmt.condition);
+
+        int exitJump = emitJump(OpCode.POP_JUMP_IF_FALSE);
+
+        Loop loop = new Loop(current.loop, current.scopeDepth);
+        current.loop = loop;
+        compile(stmt.body);
+        current.loop = loop.enclosing;
+
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        for (int breakJump : loop.breakJumps) {
+            patchJump(breakJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        line = stmt.name.getLine();
+        declareVariable(stmt.name);
+
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emitWithShort(OpCode.CONSTANT, makeConstant(Interpreter.VariableUninitialized.UNINITIALIZED, stmt.name));
+        }
+
+        markInitialized();
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        Loop loop = current.loop;
+        if (loop == null) {
+            // the Parser lets a break through when a function is declared inside a loop
+            reporter.error(line, "break; statement allowed only inside a loop");
+            return null;
+        }
+
+        // leave the scopes opened inside the loop body without forgetting their locals,
+        // the code following the break still belongs to those scopes
+        for (int i = current.locals.size() - 1; i >= 0 && current.locals.get(i).depth > loop.scopeDepth; i--) {
+            emit(current.locals.get(i).isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+        }
+        loop.breakJumps.add(emitJump(OpCode.JUMP));
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        line = expr.name.getLine();
+
+        int local = resolveLocal(current, expr.name);
+        if (local != -1) {
+            emitWithByte(OpCode.SET_LOCAL, local);
+        } else {
+            int upvalue = resolveUpvalue(current, expr.name);
+            if (upvalue != -1) {
+                emitWithByte(OpCode.SET_UPVALUE, upvalue);
+            } else {
+                emitWithShort(OpCode.SET_GLOBAL, globalSlot(expr.name));
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+
+        Token operator = expr.operator;
+        line = operator.getLine();
+        switch (operator.getType()) {
+            case BANG_EQUAL: emit(OpCode.NOT_EQUAL); break;
+            case EQUAL_EQUAL: emit(OpCode.EQUAL); break;
+            case GREATER: emit(OpCode.GREATER); break;
+            case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL); break;
+            case LESS: emit(OpCode.LESS); break;
+            case LESS_EQUAL: emit(OpCode.LESS_EQUAL); break;
+            case MINUS: emit(OpCode.SUBTRACT); break;
+            case PLUS: emit(OpCode.ADD); break;
+            case STAR: emit(OpCode.MULTIPLY); break;
+            case SLASH: emit(OpCode.DIVIDE); break;
+            // same as the Interpreter, e.g. for the comma operator
+            default: emitWithShort(OpCode.ERROR, makeConstant("Unexpected token", operator));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compile(expr.callee);
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+
+        line = expr.paren.getLine();
+        emitWithByte(OpCode.CALL, expr.arguments.size());
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL);
+        } else if (Boolean.TRUE.equals(expr.value)) {
+            emit(OpCode.TRUE);
+        } else if (Boolean.FALSE.equals(expr.value)) {
+            emit(OpCode.FALSE);
+        } else {
+            emitWithShort(OpCode.CONSTANT, makeConstant(expr.value, null));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        line = expr.operator.getLine();
+
+        if (expr.operator.getType() == TokenType.OR) {
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+
+            patchJump(elseJump);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+
+        Token operator = expr.operator;
+        line = operator.getLine();
+        switch (operator.getType()) {
+            case BANG: emit(OpCode.NOT); break;
+            case MINUS: emit(OpCode.NEGATE); break;
+            default: emitWithShort(OpCode.ERROR, makeConstant("Unexpected token", operator));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitConditionalExpr(Expr.Conditional expr) {
+        compile(expr.condition);
+        int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(expr.caseTrue);
+
+        int endJump = emitJump(OpCode.JUMP);
+        patchJump(elseJump);
+        emit(OpCode.POP);
+        compile(expr.caseFalse);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.getLine();
+
+        int local = resolveLocal(current, expr.name);
+        if (local != -1) {
+            emitWithByte(OpCode.GET_LOCAL, local);
+        } else {
+            int upvalue = resolveUpvalue(current, expr.name);
+            if (upvalue != -1) {
+                emitWithByte(OpCode.GET_UPVALUE, upvalue);
+            } else {
+                emitWithShort(OpCode.GET_GLOBAL, globalSlot(expr.name));
+            }
+        }
+        return null;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private VmFunction endFunction(String name, int arity) {
+        emit(OpCode.NIL);
+        emit(OpCode.RETURN);
+
+        VmFunction function = new VmFunction(name, arity, current.upvalues.size(), current.chunk);
+        current = current.enclosing;
+        return function;
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            emit(locals.get(locals.size() - 1).isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    /**
+     * Globals are late bound by name, locals get the next free stack slot
+     */
+    private void declareVariable(Token name) {
+        if (current.scopeDepth == 0) return;
+
+        if (current.locals.size() == MAX_SLOTS) {
+            reporter.error(name, "Too many local variables in function.");
+            return;
+        }
+        current.locals.add(new Local(name.getSymbol()));
+    }
+
+    private void markInitialized() {
+        if (current.scopeDepth == 0) return;
+        current.locals.get(current.locals.size() - 1).depth = current.scopeDepth;
+    }
+
+    private void defineVariable(Token name) {
+        // a local is simply the value left on top of the stack
+        if (current.scopeDepth > 0) return;
+
+        emitWithShort(OpCode.DEFINE_GLOBAL, globalSlot(name));
+    }
+
+    private static int resolveLocal(FunctionState function, Token name) {
+        for (int i = function.locals.size() - 1; i >= 0; i--) {
+            if (function.locals.get(i).name == name.getSymbol()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Looks the variable up in the enclosing functions, adding an upvalue to every function in between
+     */
+    private int resolveUpvalue(FunctionState function, Token name) {
+        if (function.enclosing == null) return -1;
+
+        int local = resolveLocal(function.enclosing, name);
+        if (local != -1) {
+            function.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(function, local, true, name);
+        }
+
+        int upvalue = resolveUpvalue(function.enclosing, name);
+        if (upvalue != -1) {
+            return addUpvalue(function, upvalue, false, name);
+        }
+
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState function, int index, boolean isLocal, Token name) {
+        List<UpvalueRef> upvalues = function.upvalues;
+        for (int i = 0; i < upvalues.size(); i++) {
+            UpvalueRef upvalue = upvalues.get(i);
+            if (upvalue.index == index && upvalue.isLocal == isLocal) {
+                return i;
+            }
+        }
+
+        if (upvalues.size() == MAX_SLOTS) {
+            reporter.error(name, "Too many closure variables in function.");
+            return 0;
+        }
+
+        upvalues.add(new UpvalueRef(index, isLocal));
+        return upvalues.size() - 1;
+    }
+
+    private int globalSlot(Token name) {
+        int slot = globals.slot(name.getSymbol());
+        if (slot > 0xffff) {
+            reporter.error(name, "Too many global variables.");
+            return 0;
+        }
+        return slot;
+    }
+
+    private int makeConstant(Object value, Token token) {
+        int constant = current.chunk.addConstant(value);
+        if (constant > 0xffff) {
+            if (token != null) {
+                reporter.error(token, "Too many constants in one function.");
+            } else {
+                reporter.error(line, "Too many constants in one function.");
+            }
+            return 0;
+        }
+        return constant;
+    }
+
+    private void emit(byte opCode) {
+        current.chunk.write(opCode, line);
+    }
+
+    private void emitByte(byte value) {
+        current.chunk.write(value, line);
+    }
+
+    private void emitWithByte(byte opCode, int operand) {
+        emit(opCode);
+        emitByte((byte) operand);
+    }
+
+    private void emitWithShort(byte opCode, int operand) {
+        emit(opCode);
+        emitByte((byte) ((operand >> 8) & 0xff));
+        emitByte((byte) (operand & 0xff));
+    }
+
+    /**
+     * Emits a forward jump with a placeholder offset
+     * @return offset of the placeholder to be filled in by {@link #patchJump(int)}
+     */
+    private int emitJump(byte opCode) {
+        emitWithShort(opCode, 0xffff);
+        return current.chunk.count() - 2;
+    }
+
+    private void patchJump(int offset) {
+        // -2 to adjust for the jump offset itself
+        int jump = current.chunk.count() - offset - 2;
+        if (jump > 0xffff) {
+            reporter.error(line, "Too much code to jump over.");
+        }
+
+        current.chunk.patch(offset, (byte) ((jump >> 8) & 0xff));
+        current.chunk.patch(offset + 1, (byte) (jump & 0xff));
+    }
+
+    private void emitLoop(int loopStart) {
+        // +3 to jump over the LOOP instruction and its operand too
+        int offset = current.chunk.count() - loopStart + 3;
+        if (offset > 0xffff) {
+            reporter.error(line, "Loop body too large.");
+        }
+        emitWithShort(OpCode.LOOP, offset);
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final Chunk chunk = new Chunk();
+        final List<Local> locals = new ArrayList<>();
+        final List<UpvalueRef> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        Loop loop;
+
+        FunctionState(FunctionState enclosing) {
+            this.enclosing = enclosing;
+            // slot 0 holds the function being called
+            locals.add(new Local(Symbol.of("")));
+            locals.get(0).depth = 0;
+        }
+    }
+
+    private static class Local {
+        final Symbol name;
+        // -1 until the variable is initialized
+        int depth = -1;
+        boolean isCaptured = false;
+
+        Local(Symbol name) {
+            this.name = name;
+        }
+    }
+
+    private static class UpvalueRef {
+        final int index;
+        final boolean isLocal;
+
+        UpvalueRef(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    private static class Loop {
+        final Loop enclosing;
+        final int scopeDepth;
+        final List<Integer> breakJumps = new ArrayList<>();
+
+        Loop(Loop enclosing, int scopeDepth) {
+            this.enclosing = enclosing;
+            this.scopeDepth = scopeDepth;
+        }
+    }
+}
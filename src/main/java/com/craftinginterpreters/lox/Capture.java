@@ -0,0 +1,17 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Variable of an enclosing function captured by a {@link Stmt.Function}, computed by the {@link Resolver}.
+ *
+ * It's either in the slot {@code index} of a scope {@code depth} scopes up from the function declaration,
+ * or, with {@link Resolver#UPVALUE} depth, the upvalue {@code index} of the function the declaration is in.
+ */
+final class Capture {
+    final int depth;
+    final int index;
+
+    Capture(int depth, int index) {
+        this.depth = depth;
+        this.index = index;
+    }
+}
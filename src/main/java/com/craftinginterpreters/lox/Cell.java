@@ -0,0 +1,13 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Box of a local variable captured by a closure.
+ * The variable's slot and the upvalues of every {@link LoxFunction} capturing it share the same cell.
+ */
+final class Cell {
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
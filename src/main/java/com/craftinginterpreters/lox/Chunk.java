@@ -0,0 +1,62 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bytecode of a single function while it is being compiled: instructions, the constant pool and a line table
+ * mapping every byte of code to the source line it was compiled from.
+ * Frozen into a {@link VmFunction} once the function is compiled.
+ */
+class Chunk {
+    private byte[] code = new byte[64];
+    private int[] lines = new int[64];
+    private int count = 0;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndexes = new HashMap<>();
+
+    void write(byte value, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = value;
+        lines[count] = line;
+        count++;
+    }
+
+    /**
+     * @return index of the constant in the pool; equal constants share the same index
+     */
+    int addConstant(Object value) {
+        Integer index = constantIndexes.get(value);
+        if (index != null) return index;
+
+        constants.add(value);
+        constantIndexes.put(value, constants.size() - 1);
+        return constants.size() - 1;
+    }
+
+    void patch(int offset, byte value) {
+        code[offset] = value;
+    }
+
+    int count() {
+        return count;
+    }
+
+    byte[] code() {
+        return Arrays.copyOf(code, count);
+    }
+
+    int[] lines() {
+        return Arrays.copyOf(lines, count);
+    }
+
+    Object[] constants() {
+        return constants.toArray();
+    }
+}
@@ -0,0 +1,44 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.util.List;
+
+/**
+ * Global function compiled to a static method by the {@link JvmCompiler}.
+ * Compiled call sites invoke the method directly, this object is what the function is as a Lox value.
+ */
+class CompiledFunction implements LoxCallable {
+    private final Stmt.Function declaration;
+    // takes the arguments as an Object[]
+    private final MethodHandle method;
+
+    CompiledFunction(Stmt.Function declaration, MethodHandle method) {
+        this.declaration = declaration;
+        this.method = method.asSpreader(Object[].class, declaration.params.size());
+    }
+
+    @Override
+    public int arity() {
+        return declaration.params.size();
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return invoke(arguments.toArray());
+    }
+
+    Object invoke(Object[] arguments) {
+        try {
+            return (Object) method.invokeExact(arguments);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<fn %s >", declaration.name.getLexeme());
+    }
+}
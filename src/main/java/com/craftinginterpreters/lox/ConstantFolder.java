@@ -0,0 +1,220 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Optimization pass run between {@link Parser#parse()} and the {@link Resolver}.
+ *
+ * Rewrites the tree bottom-up: {@code Binary} and {@code Unary} nodes whose operands are all literals are replaced
+ * with the {@code Literal} they evaluate to, {@code Logical} and {@code Conditional} nodes with a literal condition
+ * are replaced with the operand that would be chosen, groupings are dropped,
+ * and {@code If}/{@code While} statements with a literal condition lose their dead branches.
+ *
+ * Constant operations are evaluated by an {@link Interpreter}, so folding can't change their result.
+ * Operations that fail at runtime (e.g. {@code 1 / 0}, {@code -"a"}) are left in place to fail when executed.
+ * Nodes that don't change are returned as is.
+ */
+class ConstantFolder implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    private final Interpreter evaluator = new Interpreter();
+
+    /**
+     * @return the same list if none of the statements changed
+     */
+    List<Stmt> fold(List<Stmt> statements) {
+        List<Stmt> folded = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (Stmt statement : statements) {
+            Stmt result = fold(statement);
+            changed |= result != statement;
+            // statements that can never run are removed
+            if (result != null) folded.add(result);
+        }
+        return changed ? folded : statements;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = fold(stmt.statements);
+        return statements == stmt.statements ? stmt : new Stmt.Block(statements);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = fold(stmt.expression);
+        return expression == stmt.expression ? stmt : new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        // folded once it's parsed
+        if (stmt.body instanceof LazyBody) return stmt;
+
+        List<Stmt> body = fold(stmt.body);
+        return body == stmt.body ? stmt : new Stmt.Function(stmt.name, stmt.params, body);
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = fold(stmt.condition);
+        Stmt thenBranch = fold(stmt.thenBranch);
+        Stmt elseBranch = stmt.elseBranch == null ? null : fold(stmt.elseBranch);
+
+        if (condition instanceof Expr.Literal) {
+            return Values.isTruthy(((Expr.Literal) condition).value) ? thenBranch : elseBranch;
+        }
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        // the then branch may have been pruned to nothing
+        return new Stmt.If(condition, thenBranch == null ? new Stmt.Block(List.of()) : thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = fold(stmt.expression);
+        return expression == stmt.expression ? stmt : new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return stmt;
+
+        Expr value = fold(stmt.value);
+        return value == stmt.value ? stmt : new Stmt.Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = fold(stmt.condition);
+        if (condition instanceof Expr.Literal && !Values.isTruthy(((Expr.Literal) condition).value)) {
+            return null;
+        }
+
+        Stmt body = fold(stmt.body);
+        if (condition == stmt.condition && body == stmt.body) return stmt;
+        return new Stmt.While(stmt.keyword, condition, body == null ? new Stmt.Block(List.of()) : body);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer == null) return stmt;
+
+        Expr initializer = fold(stmt.initializer);
+        return initializer == stmt.initializer ? stmt : new Stmt.Var(stmt.name, initializer);
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.Break stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = fold(expr.value);
+        return value == expr.value ? expr : new Expr.Assign(expr.name, value);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = fold(expr.left);
+        Expr right = fold(expr.right);
+        Expr binary = left == expr.left && right == expr.right ? expr : new Expr.Binary(left, expr.operator, right);
+
+        if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+            return evaluateConstant(binary);
+        }
+        return binary;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = fold(expr.callee);
+        boolean changed = callee != expr.callee;
+        List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+        for (Expr argument : expr.arguments) {
+            Expr folded = fold(argument);
+            changed |= folded != argument;
+            arguments.add(folded);
+        }
+
+        if (!changed) return expr;
+        return new Expr.Call(callee, expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return fold(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = fold(expr.left);
+        Expr right = fold(expr.right);
+
+        if (left instanceof Expr.Literal) {
+            boolean leftTruthy = Values.isTruthy(((Expr.Literal) left).value);
+            boolean shortCircuits = expr.operator.getType() == TokenType.OR ? leftTruthy : !leftTruthy;
+            return shortCircuits ? left : right;
+        }
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = fold(expr.right);
+        Expr unary = right == expr.right ? expr : new Expr.Unary(expr.operator, right);
+
+        if (right instanceof Expr.Literal) {
+            return evaluateConstant(unary);
+        }
+        return unary;
+    }
+
+    @Override
+    public Expr visitConditionalExpr(Expr.Conditional expr) {
+        Expr condition = fold(expr.condition);
+        Expr caseTrue = fold(expr.caseTrue);
+        Expr caseFalse = fold(expr.caseFalse);
+
+        if (condition instanceof Expr.Literal) {
+            return Values.isTruthy(((Expr.Literal) condition).value) ? caseTrue : caseFalse;
+        }
+        if (condition == expr.condition && caseTrue == expr.caseTrue && caseFalse == expr.caseFalse) return expr;
+        return new Expr.Conditional(condition, caseTrue, caseFalse);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    private Stmt fold(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Expr fold(Expr expr) {
+        return expr.accept(this);
+    }
+
+    /**
+     * @param expr operation with literal operands only
+     * @return the resulting literal, or the operation itself if it fails
+     */
+    private Expr evaluateConstant(Expr expr) {
+        try {
+            Object value = expr.accept(evaluator);
+            // the compilers put literals in constant pools, which only take Strings
+            if (value instanceof Rope) value = value.toString();
+            return new Expr.Literal(value);
+        } catch (LoxRuntimeError error) {
+            return expr;
+        }
+    }
+}
@@ -1,7 +1,15 @@
 package com.craftinginterpreters.lox;
 
 public interface Environment {
-    void define(String name, Object value);
+    void define(Symbol name, Object value);
     Object get(Token name);
     void assign(Token name, Object value);
+
+    /*
+     * Index based access to variables resolved by the Resolver.
+     * depth is the number of scopes to hop, slot is the variable's index in that scope.
+     */
+    void define(int slot, Object value);
+    Object get(int depth, int slot);
+    void assign(int depth, int slot, Object value);
 }
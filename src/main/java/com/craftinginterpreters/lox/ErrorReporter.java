@@ -0,0 +1,67 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+
+/**
+ * Collects the errors of one program run: static errors found by the {@link Scanner}, {@link Parser},
+ * {@link Resolver} and compilers, and runtime errors. Every {@link LoxContext} has its own, so concurrent runs don't
+ * see each other's errors.
+ */
+public class ErrorReporter {
+    private final PrintStream out;
+    // static errors, since the last reset
+    private int errorCount = 0;
+    private boolean hadRuntimeError = false;
+
+    public ErrorReporter(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Whether a static error was reported, the program shouldn't be run
+     */
+    public boolean hadError() {
+        return errorCount > 0;
+    }
+
+    /**
+     * Tells whether a part parsed later, e.g. a {@link LazyBody}, had errors of its own
+     */
+    int errorCount() {
+        return errorCount;
+    }
+
+    public boolean hadRuntimeError() {
+        return hadRuntimeError;
+    }
+
+    /**
+     * Forgets the errors, e.g. before the next line of the REPL
+     */
+    void reset() {
+        errorCount = 0;
+        hadRuntimeError = false;
+    }
+
+    void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    void error(Token token, String message) {
+        if (token.getType() == TokenType.EOF) {
+            report(token.getLine(), " at end", message);
+        } else {
+            report(token.getLine(), " at '" + token.getLexeme() + "'", message);
+        }
+    }
+
+    void runtimeError(LoxRuntimeError error) {
+        out.println(error.getMessage() + "[line " + error.line + "]");
+        hadRuntimeError = true;
+    }
+
+    private void report(int line, String where, String message) {
+        out.println("[line " + line + "] Error" + where + ": " + message);
+        errorCount++;
+    }
+}
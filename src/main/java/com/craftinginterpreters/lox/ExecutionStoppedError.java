@@ -0,0 +1,10 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Raised when an execution is cancelled or runs out of {@link Fuel} or memory, rather than by an error in the script
+ */
+public class ExecutionStoppedError extends LoxRuntimeError {
+    ExecutionStoppedError(int line, String message) {
+        super(line, message);
+    }
+}
@@ -31,6 +31,8 @@ abstract class Expr {
 
     final Token name;
     final Expr value;
+    @EqualsAndHashCode.Exclude int depth = -1;
+    @EqualsAndHashCode.Exclude int slot = -1;
   }
   @EqualsAndHashCode(callSuper = false)
   static class Binary extends Expr {
@@ -47,6 +49,7 @@ abstract class Expr {
     final Expr left;
     final Token operator;
     final Expr right;
+    @EqualsAndHashCode.Exclude Specialization specialization = Specialization.UNINITIALIZED;
   }
   @EqualsAndHashCode(callSuper = false)
   static class Call extends Expr {
@@ -63,6 +66,7 @@ abstract class Expr {
     final Expr callee;
     final Token paren;
     final List<Expr> arguments;
+    @EqualsAndHashCode.Exclude InlineCache cache = null;
   }
   @EqualsAndHashCode(callSuper = false)
   static class Grouping extends Expr {
@@ -145,6 +149,8 @@ abstract class Expr {
     }
 
     final Token name;
+    @EqualsAndHashCode.Exclude int depth = -1;
+    @EqualsAndHashCode.Exclude int slot = -1;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
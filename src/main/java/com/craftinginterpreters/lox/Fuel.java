@@ -0,0 +1,73 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Budget of one execution, counted in ticks: one per loop iteration and one per call of a Lox function.
+ *
+ * The running backend takes ticks in slices of {@link #SLICE} and counts them down in a plain field, so the
+ * check on the hot path is a decrement and a compare. Only when a slice is used up does it come back here, which is
+ * also where cancellation, by {@link #cancel()} or by interrupting the thread, is noticed.
+ *
+ * {@link #unmetered()} fuel isn't counted at all, the backends skip the tick, for executions nothing needs to stop.
+ */
+public final class Fuel {
+    static final int SLICE = 1024;
+    private static final Fuel UNMETERED = new Fuel(Long.MAX_VALUE);
+
+    private long remaining;
+    private volatile boolean cancelled = false;
+
+    public Fuel(long ticks) {
+        if (ticks < 0) throw new IllegalArgumentException("Negative fuel " + ticks);
+        this.remaining = ticks;
+    }
+
+    /**
+     * Never runs out, but is counted, so it can still be cancelled
+     */
+    public static Fuel unlimited() {
+        return new Fuel(Long.MAX_VALUE);
+    }
+
+    /**
+     * Shared by every execution that isn't metered, so it can't be cancelled
+     */
+    public static Fuel unmetered() {
+        return UNMETERED;
+    }
+
+    boolean isMetered() {
+        return this != UNMETERED;
+    }
+
+    /**
+     * Stops the execution using this fuel at its next slice, can be called from any thread
+     */
+    public void cancel() {
+        if (!isMetered()) throw new UnsupportedOperationException("Unmetered fuel can't be cancelled");
+        cancelled = true;
+    }
+
+    /**
+     * @return ticks not handed out yet, the running slice isn't included
+     */
+    public long remaining() {
+        return remaining;
+    }
+
+    /**
+     * @param line where the execution is, for the error
+     * @return the number of ticks the caller may spend before calling again, at least one
+     */
+    int take(int line) {
+        if (cancelled || Thread.currentThread().isInterrupted()) {
+            throw new ExecutionStoppedError(line, "Execution was cancelled.");
+        }
+        if (remaining == 0) {
+            throw new ExecutionStoppedError(line, "Execution ran out of fuel.");
+        }
+
+        int slice = (int) Math.min(SLICE, remaining);
+        remaining -= slice;
+        return slice;
+    }
+}
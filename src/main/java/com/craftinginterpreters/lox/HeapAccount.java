@@ -0,0 +1,166 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Estimated heap held by the values one execution creates: strings built by concatenation, environments of calls
+ * and blocks, and closures. A {@link Rope} is counted as a node when it's built and as a String once it's flattened.
+ * Sizes are estimates for a 64-bit JVM with compressed references, strings counted as UTF-16.
+ *
+ * Environments are released when their call or block ends. Strings and closures are released once the garbage
+ * collector finds them unreachable, so a loop that replaces one string by the next holds the same bytes however
+ * long it runs. Garbage is only noticed after a collection. When the limit is reached a collection is requested, at
+ * most once per half the limit allocated, and the execution is stopped if it still holds more than the limit. Until
+ * the next collection is due it may go over the limit by the garbage it could have made since the last one. Without a
+ * limit values aren't tracked, they stay counted until the execution ends and the live bytes are an upper bound.
+ */
+public final class HeapAccount {
+    private static final int REFERENCE_BYTES = 4;
+    private static final int STRING_BYTES = 40;
+    private static final int ENVIRONMENT_BYTES = 24;
+    private static final int FUNCTION_BYTES = 24;
+    private static final int ROPE_BYTES = 40;
+    // how long to wait for the references the requested collection clears
+    private static final long COLLECTION_WAIT_MILLIS = 10;
+
+    private final long limit;
+    // strongly held, a phantom reference is only enqueued while it's reachable itself
+    private final Set<Allocation> allocations = new HashSet<>();
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+    private long live = 0;
+    private long peak = 0;
+    private long total = 0;
+    // total when the last collection was requested
+    private long totalAtCollection = 0;
+
+    public HeapAccount(long limitBytes) {
+        if (limitBytes < 0) throw new IllegalArgumentException("Negative heap limit " + limitBytes);
+        this.limit = limitBytes;
+    }
+
+    public static HeapAccount unlimited() {
+        return new HeapAccount(Long.MAX_VALUE);
+    }
+
+    /**
+     * @return highest number of live bytes so far, including garbage not collected yet
+     */
+    public long peakBytes() {
+        return peak;
+    }
+
+    /**
+     * @return bytes of everything allocated so far, released or not
+     */
+    public long totalBytes() {
+        return total;
+    }
+
+    /**
+     * Counts the bytes of a value until it's collected
+     *
+     * @param line where the execution is, for the error
+     * @return the value
+     */
+    <T> T allocate(T value, long bytes, int line) {
+        counted(value, bytes);
+        allocate(bytes, line);
+        return value;
+    }
+
+    /**
+     * Releases the bytes of a value once it's collected, for bytes already counted before the value was made, so a
+     * value over the limit is never made
+     *
+     * @return the value
+     */
+    <T> T counted(T value, long bytes) {
+        if (limit != Long.MAX_VALUE) allocations.add(new Allocation(value, bytes, collected));
+        return value;
+    }
+
+    /**
+     * @param line where the execution is, for the error
+     */
+    void allocate(long bytes, int line) {
+        allocate(bytes);
+        if (live > limit) collect(line);
+    }
+
+    /**
+     * Counts the bytes without checking the limit, for allocations without a line, e.g. the environment of a block.
+     * The limit is checked at the next allocation with a line.
+     */
+    void allocate(long bytes) {
+        live += bytes;
+        total += bytes;
+        if (live > peak) peak = live;
+    }
+
+    void release(long bytes) {
+        live -= bytes;
+    }
+
+    /**
+     * Releases the values collected since, asks for a collection if that's not enough and one is due
+     */
+    private void collect(int line) {
+        releaseCollected();
+        if (live > limit && !allocations.isEmpty()) {
+            if (total - totalAtCollection < limit / 2) return;
+            totalAtCollection = total;
+            System.gc();
+            try {
+                Reference<?> reference;
+                while (live > limit && (reference = collected.remove(COLLECTION_WAIT_MILLIS)) != null) {
+                    release((Allocation) reference);
+                    releaseCollected();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (live > limit) throw new ExecutionStoppedError(line, "Execution ran out of memory.");
+    }
+
+    private void releaseCollected() {
+        Reference<?> reference;
+        while ((reference = collected.poll()) != null) {
+            release((Allocation) reference);
+        }
+    }
+
+    private void release(Allocation allocation) {
+        allocations.remove(allocation);
+        release(allocation.bytes);
+    }
+
+    static long stringBytes(int length) {
+        return STRING_BYTES + 2L * length;
+    }
+
+    static long ropeBytes() {
+        return ROPE_BYTES;
+    }
+
+    static long environmentBytes(int slotCount) {
+        return ENVIRONMENT_BYTES + (long) REFERENCE_BYTES * slotCount;
+    }
+
+    static long functionBytes(int upvalueCount) {
+        return FUNCTION_BYTES + (long) REFERENCE_BYTES * upvalueCount;
+    }
+
+    private static final class Allocation extends PhantomReference<Object> {
+        final long bytes;
+
+        Allocation(Object value, long bytes, ReferenceQueue<Object> queue) {
+            super(value, queue);
+            this.bytes = bytes;
+        }
+    }
+}
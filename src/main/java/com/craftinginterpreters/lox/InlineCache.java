@@ -0,0 +1,27 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Monomorphic inline cache of an {@link Expr.Call} whose callee is a global variable.
+ *
+ * Remembers the function the name resolved to, along with the arity check that already passed.
+ * The entry stays valid while no global binding of a callable changes, see {@link RootEnvironment#callablesVersion()}.
+ * Entries are immutable, a miss replaces the whole entry.
+ */
+final class InlineCache {
+    private final RootEnvironment globals;
+    private final int version;
+    final LoxFunction function;
+
+    InlineCache(RootEnvironment globals, LoxFunction function) {
+        this.globals = globals;
+        this.version = globals.callablesVersion();
+        this.function = function;
+    }
+
+    /**
+     * The same AST can be run by several interpreters, each with its own globals
+     */
+    boolean isValidFor(RootEnvironment globals) {
+        return this.globals == globals && version == globals.callablesVersion();
+    }
+}
@@ -1,102 +1,171 @@
 package com.craftinginterpreters.lox;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Interpreter.Completion>{
+    private static final Cell[] NO_UPVALUES = new Cell[0];
+
+    final RootEnvironment globals = new RootEnvironment();
+    private final ErrorReporter reporter;
+    private OutputSink output = OutputSink.systemOut();
+    Environment currentEnvironment = globals;
+    private long inlineCacheHits = 0;
+    private long inlineCacheMisses = 0;
+    // value of the last executed return statement, valid while a RETURN completion propagates
+    private Object returnValue;
+    // captured variables of the function being executed
+    private Cell[] upvalues = NO_UPVALUES;
+    // null unless profiling, checked once per call
+    private Profiler profiler;
+    private Fuel fuel = Fuel.unmetered();
+    private boolean metered = false;
+    // left of the slice taken from fuel, see tick
+    private int ticks = 0;
+    private HeapAccount heap = HeapAccount.unlimited();
+
+    public Interpreter() {
+        this(new ErrorReporter(System.err));
+    }
 
-    Environment currentEnvironment = new RootEnvironment();
+    public Interpreter(ErrorReporter reporter) {
+        this.reporter = reporter;
+    }
 
-    void interpret(List<Stmt> statements) {
+    /**
+     * @return false if execution stopped on a runtime error, it's reported
+     */
+    boolean interpret(List<Stmt> statements) {
         try {
             for (Stmt statement : statements) {
                 execute(statement);
             }
+            return true;
         } catch (LoxRuntimeError error) {
-            Lox.runtimeError(error);
+            // what was printed before the error comes first
+            output.flush();
+            reporter.runtimeError(error);
+            return false;
         }
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new ChildEnvironment(currentEnvironment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        long bytes = HeapAccount.environmentBytes(stmt.slotCount);
+        heap.allocate(bytes);
+        try {
+            return executeBlock(stmt.statements, new SlotEnvironment(currentEnvironment, stmt.slotCount, stmt.capturedSlots));
+        } finally {
+            heap.release(bytes);
+        }
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
-        evaluate(stmt.expression);
-        return null;
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = stmt.expression;
+        if (expression instanceof Expr.Assign && isLocalArithmeticAssignment((Expr.Assign) expression)) {
+            // the value of the assignment isn't used, so it doesn't have to be boxed
+            Expr.Assign assign = (Expr.Assign) expression;
+            storeNumber(assign.depth, assign.slot, assign.value);
+        } else {
+            evaluate(expression);
+        }
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, this.currentEnvironment);
-        currentEnvironment.define(stmt.name.getLexeme(), function);
-        return null;
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
+        LoxFunction function = heap.allocate(new LoxFunction(stmt, captureUpvalues(stmt), globals),
+                HeapAccount.functionBytes(stmt.captures.size()), stmt.name.getLine());
+        if (stmt.slot == -1) {
+            globals.define(stmt.name.getSymbol(), function);
+        } else {
+            // the cell of a captured slot already exists, so a recursive local function can capture itself
+            currentEnvironment.define(stmt.slot, function);
+        }
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
-        if (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.thenBranch);
+    public Completion visitIfStmt(Stmt.If stmt) {
+        if (Values.isTruthy(evaluate(stmt.condition))) {
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
-        Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
-        return null;
+    public Completion visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = stmt.expression;
+        if (isArithmetic(expression)) {
+            // printed without boxing the number
+            try {
+                output.println(evaluateNumber(expression));
+            } catch (NotANumber notANumber) {
+                print(notANumber.value);
+            }
+        } else {
+            print(evaluate(expression));
+        }
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
         Object value = null;
         if (stmt.value != null) value = evaluate(stmt.value);
 
-        throw new Return(value);
+        returnValue = value;
+        return Completion.RETURN;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
         Expr initializer = stmt.initializer;
+        if (stmt.slot != -1 && initializer != null && isArithmetic(initializer)) {
+            storeNumber(0, stmt.slot, initializer);
+            return Completion.NORMAL;
+        }
 
         Object value = Objects.nonNull(initializer) ?
                 evaluate(initializer) :
                 VariableUninitialized.UNINITIALIZED;
 
-        currentEnvironment.define(stmt.name.getLexeme(), value);
-        return null;
+        define(stmt.name, stmt.slot, value);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
-        try {
-            while (isTruthy(evaluate(stmt.condition))) {
-                execute(stmt.body);
-            }
-        } catch (Break breakEncounter) {
-            System.err.println("BreakEncounter caught");
+    public Completion visitWhileStmt(Stmt.While stmt) {
+        while (Values.isTruthy(evaluate(stmt.condition))) {
+            Completion completion = execute(stmt.body);
+            if (completion == Completion.BREAK) break;
+            if (completion == Completion.RETURN) return completion;
+            tick(stmt.keyword);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitBreakStmt(Stmt.Break stmt) {
-        System.err.println("Encountered a break. Throwing");
-        throw new Break();
+    public Completion visitBreakStmt(Stmt.Break stmt) {
+        return Completion.BREAK;
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
 
-        currentEnvironment.assign(expr.name, value);
+        if (expr.depth == Resolver.GLOBAL) {
+            globals.assign(expr.name, value);
+        } else if (expr.depth == Resolver.UPVALUE) {
+            upvalues[expr.slot].value = value;
+        } else {
+            currentEnvironment.assign(expr.depth, expr.slot, value);
+        }
         return value;
     }
 
@@ -111,9 +180,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
         TokenType logicalOperator = expr.operator.getType();
         if (logicalOperator == TokenType.OR) {
-            if (isTruthy(left)) return left;
+            if (Values.isTruthy(left)) return left;
         } else if (logicalOperator == TokenType.AND) {
-            if (!isTruthy(left)) return left;
+            if (!Values.isTruthy(left)) return left;
         }
 
         return evaluate(expr.right);
@@ -126,14 +195,15 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
-        Object rhs = evaluate(expr.right);
-
         Token operatorToken = expr.operator;
+        if (operatorToken.getType() == TokenType.MINUS) {
+            // never throws NotANumber, a non-number operand is reported right away
+            return evaluateNumber(expr);
+        }
+
+        Object rhs = evaluate(expr.right);
         switch (operatorToken.getType()) {
-            case BANG: return !isTruthy(rhs);
-            case MINUS:
-                checkNumberOperand(operatorToken, rhs);
-                return -(double) rhs;
+            case BANG: return !Values.isTruthy(rhs);
             default: throw new LoxRuntimeError(operatorToken, "Unexpected token");
         }
     }
@@ -141,7 +211,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
         Token variableName = expr.name;
-        Object value = currentEnvironment.get(variableName);
+        Object value = lookUpVariable(variableName, expr.depth, expr.slot);
         if (value == VariableUninitialized.UNINITIALIZED) {
             throw new LoxRuntimeError(variableName, "Uninitialized variable ");
         }
@@ -150,60 +220,55 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
-        Object lhs = evaluate(expr.left);
-        Object rhs = evaluate(expr.right);
-
         Token operatorToken = expr.operator;
         switch (operatorToken.getType()) {
-            case BANG_EQUAL:
-                return !isEqual(lhs, rhs);
-            case EQUAL_EQUAL:
-                return isEqual(lhs, rhs);
             case GREATER:
-                checkNumberOperands(operatorToken, lhs, rhs);
-                return (double) lhs > (double) rhs;
             case GREATER_EQUAL:
-                checkNumberOperands(operatorToken, lhs, rhs);
-                return (double) lhs >= (double) rhs;
             case LESS:
-                checkNumberOperands(operatorToken, lhs, rhs);
-                return (double) lhs < (double) rhs;
             case LESS_EQUAL:
-                checkNumberOperands(operatorToken, lhs, rhs);
-                return (double) lhs <= (double) rhs;
+                return compare(expr);
             case MINUS:
-                checkNumberOperands(operatorToken, lhs, rhs);
-                return (double) lhs - (double) rhs;
-            case PLUS:
-                if (lhs instanceof Double && rhs instanceof Double) {
-                    return (double) lhs + (double) rhs;
-                } else if (lhs instanceof String || rhs instanceof String) {
-                    return stringify(lhs) + stringify(rhs);
-                } else {
-                    throw new LoxRuntimeError(operatorToken, "Only Strings and Numbers are supported");
-                }
             case STAR:
-                checkNumberOperands(operatorToken, lhs, rhs);
-                return (double) lhs * (double) rhs;
             case SLASH:
-                checkNumberOperands(operatorToken, lhs, rhs);
-                double evalResult = (double) lhs / (double) rhs;
-                if (Double.isInfinite(evalResult)) {
-                    throw new LoxRuntimeError(operatorToken, "Division by zero");
-                }
-                return evalResult;
-            default: throw new LoxRuntimeError(operatorToken, "Unexpected token");
+                return arithmetic(expr);
+            case PLUS:
+                return plus(expr);
+            case BANG_EQUAL:
+                return !equal(expr);
+            case EQUAL_EQUAL:
+                return equal(expr);
+            default:
+                evaluate(expr.left);
+                evaluate(expr.right);
+                throw new LoxRuntimeError(operatorToken, "Unexpected token");
         }
     }
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
+        InlineCache cache = expr.cache;
+        if (cache != null && cache.isValidFor(globals)) {
+            inlineCacheHits++;
+            return call(cache.function, expr.arguments);
+        }
+
+        boolean globalCallee = expr.callee instanceof Expr.Variable && ((Expr.Variable) expr.callee).depth == Resolver.GLOBAL;
+        if (globalCallee) inlineCacheMisses++;
+
         Object callee = evaluate(expr.callee);
+        List<Expr> argumentExprs = expr.arguments;
+
+        if (callee instanceof LoxFunction && ((LoxFunction) callee).arity() == argumentExprs.size()) {
+            LoxFunction function = (LoxFunction) callee;
+            if (globalCallee) expr.cache = new InlineCache(globals, function);
+            return call(function, argumentExprs);
+        }
 
         // note that argument expressions are evaluated in order of their appearance
-        List<Object> arguments = expr.arguments.stream()
-                .map(this::evaluate)
-                .collect(Collectors.toList());
+        List<Object> arguments = argumentExprs.isEmpty() ? Collections.emptyList() : new ArrayList<>(argumentExprs.size());
+        for (Expr argument : argumentExprs) {
+            arguments.add(evaluate(argument));
+        }
 
         if (!(callee instanceof LoxCallable)) {
             throw new LoxRuntimeError(expr.paren, "Can only call functions and classes");
@@ -222,77 +287,435 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         return function.call(this, arguments);
     }
 
+    /**
+     * The arguments go straight into the slots of the callee environment, it's the only allocation of the call
+     */
+    private Object call(LoxFunction function, List<Expr> argumentExprs) {
+        SlotEnvironment frame = function.newFrame();
+        for (int i = 0; i < argumentExprs.size(); i++) {
+            frame.define(i, evaluate(argumentExprs.get(i)));
+        }
+        return function.call(this, frame);
+    }
+
     @Override
     public Object visitConditionalExpr(Expr.Conditional expr) {
         Object evalCondition = evaluate(expr.condition);
-        return isTruthy(evalCondition) ? evaluate(expr.caseTrue) : evaluate(expr.caseFalse);
+        return Values.isTruthy(evalCondition) ? evaluate(expr.caseTrue) : evaluate(expr.caseFalse);
+    }
+
+    private Object lookUpVariable(Token name, int depth, int slot) {
+        if (depth == Resolver.GLOBAL) {
+            return globals.get(name);
+        }
+        if (depth == Resolver.UPVALUE) {
+            return upvalues[slot].value;
+        }
+        return currentEnvironment.get(depth, slot);
+    }
+
+    /**
+     * Declarations the Resolver didn't give a slot to live in the global scope
+     */
+    private void define(Token name, int slot, Object value) {
+        if (slot == -1) {
+            globals.define(name.getSymbol(), value);
+        } else {
+            currentEnvironment.define(slot, value);
+        }
+    }
+
+    /**
+     * Evaluates an expression that has to produce a number without boxing the intermediate results of arithmetic.
+     *
+     * @throws NotANumber if the value turns out to be anything else, e.g. a string concatenation
+     */
+    private double evaluateNumber(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            switch (binary.operator.getType()) {
+                case MINUS:
+                case STAR:
+                case SLASH:
+                    return arithmetic(binary);
+                case PLUS:
+                    return add(binary);
+                default:
+                    break;
+            }
+        } else if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) expr;
+            if (variable.depth >= 0) {
+                SlotEnvironment environment = local(variable.depth);
+                if (environment.holdsNumber(variable.slot)) return environment.getNumber(variable.slot);
+            }
+        } else if (expr instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) expr).value;
+            if (value instanceof Double) return (double) value;
+            throw new NotANumber(value);
+        } else if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            if (unary.operator.getType() == TokenType.MINUS) {
+                try {
+                    return -evaluateNumber(unary.right);
+                } catch (NotANumber notANumber) {
+                    return -toNumberOperand(unary.operator, notANumber.value);
+                }
+            }
+        } else if (expr instanceof Expr.Grouping) {
+            return evaluateNumber(((Expr.Grouping) expr).expression);
+        }
+
+        Object value = evaluate(expr);
+        if (value instanceof Double) return (double) value;
+        throw new NotANumber(value);
+    }
+
+    private double arithmetic(Expr.Binary expr) {
+        double lhs = leftNumberOperand(expr);
+        double rhs = rightNumberOperand(expr);
+        switch (expr.operator.getType()) {
+            case MINUS: return lhs - rhs;
+            case STAR: return lhs * rhs;
+            case SLASH:
+                double evalResult = lhs / rhs;
+                if (Double.isInfinite(evalResult)) {
+                    throw new LoxRuntimeError(expr.operator, "Division by zero");
+                }
+                return evalResult;
+            default: throw new LoxRuntimeError(expr.operator, "Unexpected token");
+        }
+    }
+
+    private boolean compare(Expr.Binary expr) {
+        double lhs = leftNumberOperand(expr);
+        double rhs = rightNumberOperand(expr);
+        switch (expr.operator.getType()) {
+            case GREATER: return lhs > rhs;
+            case GREATER_EQUAL: return lhs >= rhs;
+            case LESS: return lhs < rhs;
+            case LESS_EQUAL: return lhs <= rhs;
+            default: throw new LoxRuntimeError(expr.operator, "Unexpected token");
+        }
+    }
+
+    /**
+     * {@code +} following the {@link Specialization} of the node, see {@link #add} for the number path
+     */
+    private Object plus(Expr.Binary expr) {
+        switch (expr.specialization) {
+            case NUMBER:
+                try {
+                    return add(expr);
+                } catch (NotANumber concatenation) {
+                    return concatenation.value;
+                }
+            case STRING: {
+                Object lhs = evaluate(expr.left);
+                Object rhs = evaluate(expr.right);
+                if (Values.isString(lhs) || Values.isString(rhs)) {
+                    return concatenate(expr.operator, lhs, rhs);
+                }
+                expr.specialization = Specialization.GENERIC;
+                return plus(expr.operator, lhs, rhs);
+            }
+            case UNINITIALIZED: {
+                Object lhs = evaluate(expr.left);
+                Object rhs = evaluate(expr.right);
+                if (lhs instanceof Double && rhs instanceof Double) {
+                    expr.specialization = Specialization.NUMBER;
+                } else if (Values.isString(lhs) || Values.isString(rhs)) {
+                    expr.specialization = Specialization.STRING;
+                } else {
+                    expr.specialization = Specialization.GENERIC;
+                }
+                return plus(expr.operator, lhs, rhs);
+            }
+            default:
+                return plus(expr.operator, evaluate(expr.left), evaluate(expr.right));
+        }
+    }
+
+    /**
+     * {@code +} of two numbers, taken while the node is specialized to {@link Specialization#NUMBER}.
+     *
+     * @throws NotANumber with the result if it's a string concatenation after all
+     */
+    private double add(Expr.Binary expr) {
+        if (expr.specialization != Specialization.NUMBER) {
+            Object value = plus(expr);
+            if (value instanceof Double) return (double) value;
+            throw new NotANumber(value);
+        }
+
+        double lhs;
+        try {
+            lhs = evaluateNumber(expr.left);
+        } catch (NotANumber notANumber) {
+            expr.specialization = Specialization.GENERIC;
+            throw new NotANumber(plus(expr.operator, notANumber.value, evaluate(expr.right)));
+        }
+        try {
+            return lhs + evaluateNumber(expr.right);
+        } catch (NotANumber notANumber) {
+            expr.specialization = Specialization.GENERIC;
+            throw new NotANumber(plus(expr.operator, lhs, notANumber.value));
+        }
+    }
+
+    /**
+     * {@code ==} following the {@link Specialization} of the node
+     */
+    private boolean equal(Expr.Binary expr) {
+        if (expr.specialization == Specialization.NUMBER) {
+            double lhs;
+            try {
+                lhs = evaluateNumber(expr.left);
+            } catch (NotANumber notANumber) {
+                expr.specialization = Specialization.GENERIC;
+                return Values.isEqual(notANumber.value, evaluate(expr.right));
+            }
+            try {
+                // same as Double.equals() used by Values.isEqual()
+                return Double.doubleToLongBits(lhs) == Double.doubleToLongBits(evaluateNumber(expr.right));
+            } catch (NotANumber notANumber) {
+                expr.specialization = Specialization.GENERIC;
+                return Values.isEqual(lhs, notANumber.value);
+            }
+        }
+
+        Object lhs = evaluate(expr.left);
+        Object rhs = evaluate(expr.right);
+        if (expr.specialization == Specialization.UNINITIALIZED) {
+            expr.specialization = lhs instanceof Double && rhs instanceof Double ?
+                    Specialization.NUMBER :
+                    Specialization.GENERIC;
+        }
+        return Values.isEqual(lhs, rhs);
+    }
+
+    private Object plus(Token operator, Object lhs, Object rhs) {
+        if (lhs instanceof Double && rhs instanceof Double) {
+            return (double) lhs + (double) rhs;
+        } else if (Values.isString(lhs) || Values.isString(rhs)) {
+            return concatenate(operator, lhs, rhs);
+        } else {
+            throw new LoxRuntimeError(operator, "Only Strings and Numbers are supported");
+        }
+    }
+
+    /**
+     * A {@link Rope} unless the result is short. Also used by code the {@link JvmCompiler} generates.
+     */
+    CharSequence concatenate(Token operator, Object lhs, Object rhs) {
+        return Rope.concat(Values.text(lhs), Values.text(rhs), heap, operator.getLine());
+    }
+
+    private double leftNumberOperand(Expr.Binary expr) {
+        try {
+            return evaluateNumber(expr.left);
+        } catch (NotANumber notANumber) {
+            // both operands are evaluated before the type check
+            evaluate(expr.right);
+            throw new LoxRuntimeError(expr.operator, "Operands must be numbers.");
+        }
     }
 
-    private void checkNumberOperands(Token operator, Object lhs, Object rhs) {
-        if (lhs instanceof Double && rhs instanceof Double) return;
-        throw new LoxRuntimeError(operator, "Operands must be numbers.");
+    private double rightNumberOperand(Expr.Binary expr) {
+        try {
+            return evaluateNumber(expr.right);
+        } catch (NotANumber notANumber) {
+            throw new LoxRuntimeError(expr.operator, "Operands must be numbers.");
+        }
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
-        if (operand instanceof Double) return;
+    private double toNumberOperand(Token operator, Object operand) {
+        if (operand instanceof Double) return (double) operand;
         throw new LoxRuntimeError(operator, "Operand must be a number.");
     }
 
     /**
-     * Everything except {@code nil} and {@code false} is {@code truthy}
-     * Like in Ruby
+     * Whether the expression is arithmetic expected to produce a number, judging by its operators
+     * and, for {@code +}, by the operand types it has seen so far
      */
-    private boolean isTruthy(Object object) {
-        if (Objects.isNull(object)) {
-            return false;
+    private boolean isArithmetic(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            switch (binary.operator.getType()) {
+                case MINUS:
+                case STAR:
+                case SLASH:
+                    return true;
+                case PLUS:
+                    return binary.specialization == Specialization.NUMBER;
+                default:
+                    return false;
+            }
         }
+        if (expr instanceof Expr.Unary) return ((Expr.Unary) expr).operator.getType() == TokenType.MINUS;
+        if (expr instanceof Expr.Grouping) return isArithmetic(((Expr.Grouping) expr).expression);
+        return false;
+    }
+
+    private boolean isLocalArithmeticAssignment(Expr.Assign assign) {
+        return assign.depth >= 0 && isArithmetic(assign.value);
+    }
 
-        if (object instanceof Boolean) {
-            return (boolean) object;
+    /**
+     * Evaluates the value and stores it into a local slot, unboxed if it's a number
+     */
+    private void storeNumber(int depth, int slot, Expr value) {
+        try {
+            double number = evaluateNumber(value);
+            local(depth).setNumber(slot, number);
+        } catch (NotANumber notANumber) {
+            local(depth).define(slot, notANumber.value);
         }
+    }
 
-        return true;
+    /**
+     * Cells of the variables the function captures, see {@link Capture}
+     */
+    private Cell[] captureUpvalues(Stmt.Function stmt) {
+        List<Capture> captures = stmt.captures;
+        if (captures.isEmpty()) return NO_UPVALUES;
+
+        Cell[] cells = new Cell[captures.size()];
+        for (int i = 0; i < cells.length; i++) {
+            Capture capture = captures.get(i);
+            cells[i] = capture.depth == Resolver.UPVALUE ?
+                    upvalues[capture.index] :
+                    local(capture.depth).cell(capture.index);
+        }
+        return cells;
     }
 
-    private boolean isEqual(Object a, Object b) {
-        // nil is only equal to nil.
-        return Objects.equals(a, b);
+    /**
+     * Local variables are only accessed from a function or block body, so there's always a slot environment
+     */
+    private SlotEnvironment local(int depth) {
+        return ((SlotEnvironment) currentEnvironment).ancestor(depth);
     }
 
     private Object evaluate(Expr expr) {
         return expr.accept(this);
     }
 
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    private Completion execute(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    /**
+     * Spends a tick of fuel, called at loop back-edges and function entries, also by code the {@link JvmCompiler}
+     * generates
+     */
+    void tick(Token at) {
+        if (metered && --ticks < 0) ticks = fuel.take(at.getLine()) - 1;
+    }
+
+    /**
+     * Executions after this one spend the given fuel
+     */
+    void setFuel(Fuel fuel) {
+        this.fuel = fuel;
+        this.metered = fuel.isMetered();
+        this.ticks = 0;
+    }
+
+    /**
+     * Executions after this one count what they allocate in the given account
+     */
+    void setHeap(HeapAccount heap) {
+        this.heap = heap;
+    }
+
+    void setOutput(OutputSink output) {
+        this.output = output;
+    }
+
+    void flushOutput() {
+        output.flush();
+    }
+
+    /**
+     * A print statement, also used by code the {@link JvmCompiler} generates
+     */
+    void print(Object value) {
+        if (value instanceof Double) {
+            output.println((double) value);
+        } else {
+            output.println(Values.stringify(value));
+        }
+    }
+
+    /**
+     * Executes a function body in its frame, with the function's upvalues
+     */
+    Completion executeFunction(Stmt.Function function, SlotEnvironment frame, Cell[] upvalues) {
+        tick(function.name);
+        long frameBytes = HeapAccount.environmentBytes(function.slotCount);
+        Cell[] previous = this.upvalues;
+        Profiler profiler = this.profiler;
+        if (profiler != null) profiler.enter(function);
+        try {
+            // released by the finally even when it goes over the limit
+            heap.allocate(frameBytes, function.name.getLine());
+            this.upvalues = upvalues;
+            return executeBlock(LazyBody.force(function.body), frame);
+        } finally {
+            this.upvalues = previous;
+            heap.release(frameBytes);
+            if (profiler != null) profiler.exit();
+        }
     }
 
-    void executeBlock(List<Stmt> statements, Environment environment) {
+    /**
+     * Stops at the first statement that completes abruptly (break or return) and passes its completion on
+     */
+    Completion executeBlock(List<Stmt> statements, Environment environment) {
         Environment previous = this.currentEnvironment;
         try {
             this.currentEnvironment = environment;
 
-            for (Stmt statement : statements) {
-                execute(statement);
+            // indexed, the iterator isn't always optimized away in this deeply recursive code
+            for (int i = 0; i < statements.size(); i++) {
+                Completion completion = execute(statements.get(i));
+                if (completion != Completion.NORMAL) return completion;
             }
+            return Completion.NORMAL;
         } finally {
             this.currentEnvironment = previous;
         }
     }
 
-    private String stringify(Object object) {
-        if (object == null) return "nil";
+    /**
+     * Function calls are recorded on the profiler's shadow stack until it's set back to null
+     */
+    void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
 
-        // Hack. Work around Java adding ".0" to integer-valued doubles.
-        if (object instanceof Double) {
-            String text = object.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
-            }
-            return text;
-        }
+    /**
+     * Calls of global functions that skipped the lookup and the checks thanks to an {@link InlineCache}
+     */
+    long inlineCacheHits() {
+        return inlineCacheHits;
+    }
+
+    /**
+     * Calls of global names that had to look the callee up
+     */
+    long inlineCacheMisses() {
+        return inlineCacheMisses;
+    }
 
-        return object.toString();
+    /**
+     * Hands the value of a {@link Completion#RETURN} over to the caller and forgets it
+     */
+    Object takeReturnValue() {
+        Object value = returnValue;
+        returnValue = null;
+        return value;
     }
 
     /**
@@ -303,10 +726,27 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
         UNINITIALIZED
     }
 
-    private static class Break extends RuntimeException {
-        Break() {
+    /**
+     * Thrown by {@link #evaluateNumber} when the expression evaluated to something other than a number.
+     * Only happens on error paths or when a specialized node deoptimizes, so it's cheap enough.
+     */
+    private static class NotANumber extends RuntimeException {
+        final Object value;
+
+        NotANumber(Object value) {
             super(null, null, false, false);
+            this.value = value;
         }
     }
 
+    /**
+     * How a statement finished. Break and return propagate as values up to the enclosing loop or function call,
+     * so they don't unwind the JVM stack with exceptions.
+     */
+    enum Completion {
+        NORMAL,
+        BREAK,
+        RETURN
+    }
+
 }
@@ -0,0 +1,983 @@
+package com.craftinginterpreters.lox;
+
+import org.objectweb.asm.ClassTooLargeException;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodTooLargeException;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Backend that translates a resolved program into a JVM class, so HotSpot compiles Lox code like any Java code.
+ *
+ * Global functions become static methods taking and returning Objects, top-level statements become {@code run}
+ * methods, a chunk of statements each.
+ * Locals live in JVM locals, globals are looked up in the {@link RootEnvironment} by name.
+ * Within an expression numbers stay unboxed doubles and comparisons stay booleans, values are boxed when stored.
+ * A call of a global function compiled in the same class invokes its method directly while the global still holds it,
+ * validated with the callables version of the globals the same way as an {@link InlineCache}.
+ *
+ * Functions declaring nested functions aren't compiled, they stay {@link LoxFunction}s run by the {@link Interpreter},
+ * and so do the top-level statements declaring them. So are the functions and statements whose method the JVM can't
+ * load, too much code or too many locals: the class is generated again without them. Everything else is compiled.
+ *
+ * The class is defined in this package with a {@link MethodHandles.Lookup}, so it uses package-private members directly.
+ */
+class JvmCompiler implements Expr.Visitor<JvmCompiler.Kind>, Stmt.Visitor<Void> {
+    private static final String OBJECT = "java/lang/Object";
+    private static final String OBJECT_DESCRIPTOR = "Ljava/lang/Object;";
+    private static final String TOKEN_DESCRIPTOR = Type.getDescriptor(Token.class);
+    private static final String ROOT_ENVIRONMENT = Type.getInternalName(RootEnvironment.class);
+    private static final String ROOT_ENVIRONMENT_DESCRIPTOR = Type.getDescriptor(RootEnvironment.class);
+    private static final String SYMBOL_DESCRIPTOR = Type.getDescriptor(Symbol.class);
+    private static final String INTERPRETER = Type.getInternalName(Interpreter.class);
+    private static final String INTERPRETER_DESCRIPTOR = Type.getDescriptor(Interpreter.class);
+    private static final String RUNTIME = Type.getInternalName(JvmRuntime.class);
+    private static final String VALUES = Type.getInternalName(Values.class);
+    private static final String UNINITIALIZED = Type.getInternalName(Interpreter.VariableUninitialized.class);
+    // top-level statements per run method, a chunk too large for a method is split into a method per statement
+    private static final int CHUNK_STATEMENTS = 32;
+    // a method handle takes at most 254 arguments, CompiledFunction spreads them from an array
+    private static final int MAX_ARITY = 254;
+    private static final int MAX_LOCALS = 0xFFFF;
+    private static final AtomicInteger classCount = new AtomicInteger();
+
+    private final Interpreter interpreter;
+    private final String className;
+    private final ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+    // values the generated code reads from its constants field, e.g. tokens for error messages
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndexes = new IdentityHashMap<>();
+    private final List<Stmt.Function> functions = new ArrayList<>();
+    // by identity, equal declarations are still different functions
+    private final Map<Stmt.Function, Integer> functionIndexes = new IdentityHashMap<>();
+    // last compiled declaration of each global name, the target of direct calls
+    private final Map<Symbol, Stmt.Function> functionsByName = new HashMap<>();
+    private int callSites = 0;
+    // kept across attempts, by identity: functions and top-level statements left to the Interpreter
+    private final Set<Stmt> interpreted;
+    // top-level statements compiled to a run method of their own
+    private final Set<Stmt> alone;
+    // top-level statements of each run method, in order
+    private final Map<String, List<Stmt>> chunks = new LinkedHashMap<>();
+
+    // state of the method being generated
+    private MethodVisitor method;
+    private final Deque<Scope> scopes = new ArrayDeque<>();
+    private final Deque<Label> loopExits = new ArrayDeque<>();
+    private String methodName;
+    private String methodDescriptor;
+    private int nextLocal;
+
+    JvmCompiler(Interpreter interpreter) {
+        this(interpreter, identitySet(), identitySet());
+    }
+
+    private JvmCompiler(Interpreter interpreter, Set<Stmt> interpreted, Set<Stmt> alone) {
+        this.interpreter = interpreter;
+        this.interpreted = interpreted;
+        this.alone = alone;
+        this.className = Type.getInternalName(JvmCompiler.class) + "$Script" + classCount.incrementAndGet();
+    }
+
+    /**
+     * @return runs the top-level statements, throws {@link LoxRuntimeError}s like {@link Interpreter#execute}
+     */
+    Runnable compile(List<Stmt> program) {
+        JvmCompiler attempt = this;
+        for (;;) {
+            try {
+                return attempt.compileClass(program);
+            } catch (MethodTooLargeException e) {
+                attempt.leaveToInterpreter(e.getMethodName());
+                attempt = new JvmCompiler(interpreter, interpreted, alone);
+            } catch (ClassTooLargeException e) {
+                // too many methods or constants for one class, nothing is compiled
+                return () -> {
+                    for (Stmt statement : program) {
+                        JvmRuntime.execute(interpreter, statement);
+                    }
+                };
+            }
+        }
+    }
+
+    private Runnable compileClass(List<Stmt> program) {
+        classWriter.visit(V11, ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, className, null, OBJECT, null);
+        classWriter.visitField(ACC_STATIC, "constants", "[" + OBJECT_DESCRIPTOR, null, null);
+        classWriter.visitField(ACC_STATIC, "globals", ROOT_ENVIRONMENT_DESCRIPTOR, null, null);
+        classWriter.visitField(ACC_STATIC, "interpreter", INTERPRETER_DESCRIPTOR, null, null);
+        // the callables version each call site last checked its target at, -1 for never
+        classWriter.visitField(ACC_STATIC, "callSites", "[I", null, null);
+
+        for (Stmt statement : program) {
+            if (statement instanceof Stmt.Function && isCompilable((Stmt.Function) statement)) {
+                Stmt.Function function = (Stmt.Function) statement;
+                functionIndexes.put(function, functions.size());
+                functions.add(function);
+                functionsByName.put(function.name.getSymbol(), function);
+                constant(function);
+            }
+        }
+        for (int i = 0; i < functions.size(); i++) {
+            compileFunction(i, functions.get(i));
+        }
+        compileRun(program);
+        classWriter.visitEnd();
+
+        return define(classWriter.toByteArray());
+    }
+
+    /**
+     * Splits the chunk of the method that is too large, or leaves its function or statement to the Interpreter
+     */
+    private void leaveToInterpreter(String methodName) {
+        List<Stmt> chunk = chunks.get(methodName);
+        if (chunk == null) {
+            interpreted.add(functions.get(Integer.parseInt(methodName.substring("function".length()))));
+        } else if (chunk.size() > 1) {
+            alone.addAll(chunk);
+        } else {
+            interpreted.add(chunk.get(0));
+        }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope(stmt.slotCount);
+        compileStatements(stmt.statements);
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        pop(compile(stmt.expression));
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new IllegalStateException("Nested function " + stmt.name.getLexeme() + " can't be compiled");
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        Label elseBranch = new Label();
+        Label end = new Label();
+
+        condition(stmt.condition);
+        method.visitJumpInsn(IFEQ, elseBranch);
+        compile(stmt.thenBranch);
+        method.visitJumpInsn(GOTO, end);
+        method.visitLabel(elseBranch);
+        if (stmt.elseBranch != null) compile(stmt.elseBranch);
+        method.visitLabel(end);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        method.visitFieldInsn(GETSTATIC, className, "interpreter", INTERPRETER_DESCRIPTOR);
+        box(compile(stmt.expression));
+        method.visitMethodInsn(INVOKEVIRTUAL, INTERPRETER, "print", "(" + OBJECT_DESCRIPTOR + ")V", false);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) {
+            method.visitInsn(ACONST_NULL);
+        } else {
+            box(compile(stmt.value));
+        }
+        method.visitInsn(ARETURN);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        Label start = new Label();
+        Label exit = new Label();
+
+        method.visitLabel(start);
+        condition(stmt.condition);
+        method.visitJumpInsn(IFEQ, exit);
+        loopExits.push(exit);
+        compile(stmt.body);
+        loopExits.pop();
+        tick(stmt.keyword);
+        method.visitJumpInsn(GOTO, start);
+        method.visitLabel(exit);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.slot == -1) {
+            method.visitFieldInsn(GETSTATIC, className, "globals", ROOT_ENVIRONMENT_DESCRIPTOR);
+            loadConstant(stmt.name.getSymbol(), Symbol.class);
+        }
+
+        if (stmt.initializer != null) {
+            box(compile(stmt.initializer));
+        } else {
+            method.visitFieldInsn(GETSTATIC, UNINITIALIZED, "UNINITIALIZED", "L" + UNINITIALIZED + ";");
+            if (stmt.slot != -1) scopes.peek().mayBeUninitialized[stmt.slot] = true;
+        }
+
+        if (stmt.slot == -1) {
+            method.visitMethodInsn(INVOKEVIRTUAL, ROOT_ENVIRONMENT, "define", "(" + SYMBOL_DESCRIPTOR + OBJECT_DESCRIPTOR + ")V", false);
+        } else {
+            method.visitVarInsn(ASTORE, scopes.peek().base + stmt.slot);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        method.visitJumpInsn(GOTO, loopExits.peek());
+        return null;
+    }
+
+    @Override
+    public Kind visitAssignExpr(Expr.Assign expr) {
+        box(compile(expr.value));
+
+        if (expr.depth == Resolver.GLOBAL) {
+            int value = newLocal(1);
+            method.visitVarInsn(ASTORE, value);
+            method.visitFieldInsn(GETSTATIC, className, "globals", ROOT_ENVIRONMENT_DESCRIPTOR);
+            loadToken(expr.name);
+            method.visitVarInsn(ALOAD, value);
+            method.visitMethodInsn(INVOKEVIRTUAL, ROOT_ENVIRONMENT, "assign", "(" + TOKEN_DESCRIPTOR + OBJECT_DESCRIPTOR + ")V", false);
+            method.visitVarInsn(ALOAD, value);
+        } else {
+            method.visitInsn(DUP);
+            method.visitVarInsn(ASTORE, local(expr.depth, expr.slot));
+        }
+        return Kind.OBJECT;
+    }
+
+    @Override
+    public Kind visitBinaryExpr(Expr.Binary expr) {
+        switch (expr.operator.getType()) {
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+                numberOperands(expr);
+                compare(expr.operator.getType());
+                return Kind.BOOLEAN;
+            case MINUS:
+                numberOperands(expr);
+                method.visitInsn(DSUB);
+                return Kind.DOUBLE;
+            case STAR:
+                numberOperands(expr);
+                method.visitInsn(DMUL);
+                return Kind.DOUBLE;
+            case SLASH:
+                numberOperands(expr);
+                loadToken(expr.operator);
+                method.visitMethodInsn(INVOKESTATIC, RUNTIME, "divide", "(DD" + TOKEN_DESCRIPTOR + ")D", false);
+                return Kind.DOUBLE;
+            case PLUS:
+                if (kindOf(expr) == Kind.DOUBLE) {
+                    compile(expr.left);
+                    compile(expr.right);
+                    method.visitInsn(DADD);
+                    return Kind.DOUBLE;
+                }
+                box(compile(expr.left));
+                box(compile(expr.right));
+                loadToken(expr.operator);
+                method.visitFieldInsn(GETSTATIC, className, "interpreter", INTERPRETER_DESCRIPTOR);
+                method.visitMethodInsn(INVOKESTATIC, RUNTIME, "plus", "(" + OBJECT_DESCRIPTOR + OBJECT_DESCRIPTOR
+                        + TOKEN_DESCRIPTOR + INTERPRETER_DESCRIPTOR + ")" + OBJECT_DESCRIPTOR, false);
+                return Kind.OBJECT;
+            case EQUAL_EQUAL:
+                equal(expr);
+                return Kind.BOOLEAN;
+            case BANG_EQUAL:
+                equal(expr);
+                method.visitInsn(ICONST_1);
+                method.visitInsn(IXOR);
+                return Kind.BOOLEAN;
+            default:
+                // e.g. the comma operator the parser accepts, it fails once both operands are evaluated
+                pop(compile(expr.left));
+                pop(compile(expr.right));
+                loadToken(expr.operator);
+                method.visitMethodInsn(INVOKESTATIC, RUNTIME, "unexpectedOperator",
+                        "(" + TOKEN_DESCRIPTOR + ")" + OBJECT_DESCRIPTOR, false);
+                return Kind.OBJECT;
+        }
+    }
+
+    @Override
+    public Kind visitCallExpr(Expr.Call expr) {
+        Stmt.Function target = directCallTarget(expr);
+        if (target != null) {
+            directCall(expr, target);
+            return Kind.OBJECT;
+        }
+
+        method.visitFieldInsn(GETSTATIC, className, "interpreter", INTERPRETER_DESCRIPTOR);
+        box(compile(expr.callee));
+        pushInt(expr.arguments.size());
+        method.visitTypeInsn(ANEWARRAY, OBJECT);
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            method.visitInsn(DUP);
+            pushInt(i);
+            box(compile(expr.arguments.get(i)));
+            method.visitInsn(AASTORE);
+        }
+        genericCall(expr.paren);
+        return Kind.OBJECT;
+    }
+
+    @Override
+    public Kind visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Kind visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        if (value == null) {
+            method.visitInsn(ACONST_NULL);
+            return Kind.OBJECT;
+        }
+        if (value instanceof Boolean) {
+            method.visitInsn((boolean) value ? ICONST_1 : ICONST_0);
+            return Kind.BOOLEAN;
+        }
+        method.visitLdcInsn(value);
+        return value instanceof Double ? Kind.DOUBLE : Kind.OBJECT;
+    }
+
+    @Override
+    public Kind visitLogicalExpr(Expr.Logical expr) {
+        Label end = new Label();
+
+        box(compile(expr.left));
+        method.visitInsn(DUP);
+        truthiness(Kind.OBJECT);
+        // the left operand is the result if it decides the outcome
+        method.visitJumpInsn(expr.operator.getType() == TokenType.OR ? IFNE : IFEQ, end);
+        method.visitInsn(POP);
+        box(compile(expr.right));
+        method.visitLabel(end);
+        return Kind.OBJECT;
+    }
+
+    @Override
+    public Kind visitUnaryExpr(Expr.Unary expr) {
+        Kind operand = compile(expr.right);
+        if (expr.operator.getType() == TokenType.MINUS) {
+            toDouble(operand, expr.operator, "operand");
+            method.visitInsn(DNEG);
+            return Kind.DOUBLE;
+        }
+
+        truthiness(operand);
+        method.visitInsn(ICONST_1);
+        method.visitInsn(IXOR);
+        return Kind.BOOLEAN;
+    }
+
+    @Override
+    public Kind visitConditionalExpr(Expr.Conditional expr) {
+        Label caseFalse = new Label();
+        Label end = new Label();
+
+        condition(expr.condition);
+        method.visitJumpInsn(IFEQ, caseFalse);
+        box(compile(expr.caseTrue));
+        method.visitJumpInsn(GOTO, end);
+        method.visitLabel(caseFalse);
+        box(compile(expr.caseFalse));
+        method.visitLabel(end);
+        return Kind.OBJECT;
+    }
+
+    @Override
+    public Kind visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth == Resolver.GLOBAL) {
+            method.visitFieldInsn(GETSTATIC, className, "globals", ROOT_ENVIRONMENT_DESCRIPTOR);
+            loadToken(expr.name);
+            method.visitMethodInsn(INVOKESTATIC, RUNTIME, "global",
+                    "(" + ROOT_ENVIRONMENT_DESCRIPTOR + TOKEN_DESCRIPTOR + ")" + OBJECT_DESCRIPTOR, false);
+            return Kind.OBJECT;
+        }
+
+        method.visitVarInsn(ALOAD, local(expr.depth, expr.slot));
+        if (mayBeUninitialized(expr.depth, expr.slot)) {
+            loadToken(expr.name);
+            method.visitMethodInsn(INVOKESTATIC, RUNTIME, "initialized",
+                    "(" + OBJECT_DESCRIPTOR + TOKEN_DESCRIPTOR + ")" + OBJECT_DESCRIPTOR, false);
+        }
+        return Kind.OBJECT;
+    }
+
+    /**
+     * Closures need the environments the Interpreter builds, so the functions declaring them aren't compiled
+     */
+    private boolean isCompilable(Stmt.Function function) {
+        return function.captures.isEmpty() && !declaresFunction(function.body)
+                && function.params.size() <= MAX_ARITY && !interpreted.contains(function);
+    }
+
+    private static boolean declaresFunction(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (declaresFunction(statement)) return true;
+        }
+        return false;
+    }
+
+    private static boolean declaresFunction(Stmt statement) {
+        if (statement instanceof Stmt.Function) return true;
+        if (statement instanceof Stmt.Block) return declaresFunction(((Stmt.Block) statement).statements);
+        if (statement instanceof Stmt.While) return declaresFunction(((Stmt.While) statement).body);
+        if (statement instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If) statement;
+            return declaresFunction(ifStmt.thenBranch) || (ifStmt.elseBranch != null && declaresFunction(ifStmt.elseBranch));
+        }
+        return false;
+    }
+
+    /**
+     * Parameters take the first JVM locals, same as the first slots of the function scope
+     */
+    private void compileFunction(int index, Stmt.Function function) {
+        beginMethod(functionMethod(index), functionDescriptor(function));
+        tick(function.name);
+        beginScope(function.slotCount);
+        compileStatements(function.body);
+        endScope();
+        method.visitInsn(ACONST_NULL);
+        method.visitInsn(ARETURN);
+        endMethod();
+    }
+
+    /**
+     * Top-level variables are globals, so the statements of a chunk share no JVM locals with the other chunks
+     */
+    private void compileRun(List<Stmt> program) {
+        List<Stmt> chunk = new ArrayList<>();
+        for (Stmt statement : program) {
+            if (alone.contains(statement) || chunk.size() == CHUNK_STATEMENTS) {
+                compileChunk(chunk);
+                chunk = new ArrayList<>();
+            }
+            chunk.add(statement);
+            if (alone.contains(statement)) {
+                compileChunk(chunk);
+                chunk = new ArrayList<>();
+            }
+        }
+        compileChunk(chunk);
+    }
+
+    private void compileChunk(List<Stmt> chunk) {
+        if (chunk.isEmpty()) return;
+
+        String name = "run" + chunks.size();
+        chunks.put(name, chunk);
+        beginMethod(name, "()V");
+        for (Stmt statement : chunk) {
+            if (functionIndexes.containsKey(statement)) {
+                Stmt.Function function = (Stmt.Function) statement;
+                method.visitFieldInsn(GETSTATIC, className, "globals", ROOT_ENVIRONMENT_DESCRIPTOR);
+                loadConstant(function.name.getSymbol(), Symbol.class);
+                loadConstant(function, CompiledFunction.class);
+                method.visitMethodInsn(INVOKEVIRTUAL, ROOT_ENVIRONMENT, "define", "(" + SYMBOL_DESCRIPTOR + OBJECT_DESCRIPTOR + ")V", false);
+            } else if (declaresFunction(statement) || interpreted.contains(statement)) {
+                method.visitFieldInsn(GETSTATIC, className, "interpreter", INTERPRETER_DESCRIPTOR);
+                loadConstant(statement, Stmt.class);
+                method.visitMethodInsn(INVOKESTATIC, RUNTIME, "execute",
+                        "(" + INTERPRETER_DESCRIPTOR + Type.getDescriptor(Stmt.class) + ")V", false);
+            } else {
+                compile(statement);
+            }
+        }
+        method.visitInsn(RETURN);
+        endMethod();
+    }
+
+    private void beginMethod(String name, String descriptor) {
+        method = classWriter.visitMethod(ACC_STATIC, name, descriptor, null, null);
+        method.visitCode();
+        methodName = name;
+        methodDescriptor = descriptor;
+        nextLocal = 0;
+    }
+
+    private void endMethod() {
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+    }
+
+    private Runnable define(byte[] bytes) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            Class<?> script = lookup.defineClass(bytes);
+
+            Object[] values = constants.toArray();
+            for (int i = 0; i < functions.size(); i++) {
+                Stmt.Function function = functions.get(i);
+                MethodHandle handle = lookup.findStatic(script, functionMethod(i), functionType(function));
+                values[constantIndexes.get(function)] = new CompiledFunction(function, handle);
+            }
+            script.getDeclaredField("constants").set(null, values);
+            script.getDeclaredField("globals").set(null, interpreter.globals);
+            script.getDeclaredField("interpreter").set(null, interpreter);
+            int[] sites = new int[callSites];
+            Arrays.fill(sites, -1);
+            script.getDeclaredField("callSites").set(null, sites);
+
+            List<MethodHandle> runs = new ArrayList<>();
+            for (String name : chunks.keySet()) {
+                runs.add(lookup.findStatic(script, name, MethodType.methodType(void.class)));
+            }
+            return () -> {
+                try {
+                    for (MethodHandle run : runs) {
+                        run.invokeExact();
+                    }
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new IllegalStateException(e);
+                }
+            };
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can't define the compiled script", e);
+        }
+    }
+
+    private void compileStatements(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+    }
+
+    /**
+     * The locals an expression takes for intermediate values are free again once its statement is done
+     */
+    private void compile(Stmt statement) {
+        int locals = nextLocal;
+        statement.accept(this);
+        nextLocal = locals;
+    }
+
+    private Kind compile(Expr expr) {
+        return expr.accept(this);
+    }
+
+    /**
+     * What an expression leaves on the stack, known before it's compiled
+     */
+    private static Kind kindOf(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) expr).value;
+            if (value instanceof Double) return Kind.DOUBLE;
+            if (value instanceof Boolean) return Kind.BOOLEAN;
+            return Kind.OBJECT;
+        }
+        if (expr instanceof Expr.Grouping) return kindOf(((Expr.Grouping) expr).expression);
+        if (expr instanceof Expr.Unary) {
+            return ((Expr.Unary) expr).operator.getType() == TokenType.MINUS ? Kind.DOUBLE : Kind.BOOLEAN;
+        }
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            switch (binary.operator.getType()) {
+                case MINUS:
+                case STAR:
+                case SLASH:
+                    return Kind.DOUBLE;
+                case PLUS:
+                    return kindOf(binary.left) == Kind.DOUBLE && kindOf(binary.right) == Kind.DOUBLE ?
+                            Kind.DOUBLE :
+                            Kind.OBJECT;
+                case GREATER:
+                case GREATER_EQUAL:
+                case LESS:
+                case LESS_EQUAL:
+                case EQUAL_EQUAL:
+                case BANG_EQUAL:
+                    return Kind.BOOLEAN;
+                default:
+                    return Kind.OBJECT;
+            }
+        }
+        return Kind.OBJECT;
+    }
+
+    /**
+     * Leaves both operands as doubles. Both are evaluated before either is checked, like in the Interpreter.
+     */
+    private void numberOperands(Expr.Binary expr) {
+        if (kindOf(expr.left) == Kind.DOUBLE) {
+            compile(expr.left);
+            toDouble(compile(expr.right), expr.operator, "operands");
+            return;
+        }
+
+        box(compile(expr.left));
+        int left = newLocal(1);
+        method.visitVarInsn(ASTORE, left);
+        Kind rightKind = compile(expr.right);
+        if (rightKind == Kind.DOUBLE) {
+            int right = newLocal(2);
+            method.visitVarInsn(DSTORE, right);
+            method.visitVarInsn(ALOAD, left);
+            toDouble(Kind.OBJECT, expr.operator, "operands");
+            method.visitVarInsn(DLOAD, right);
+        } else {
+            box(rightKind);
+            int right = newLocal(1);
+            method.visitVarInsn(ASTORE, right);
+            method.visitVarInsn(ALOAD, left);
+            toDouble(Kind.OBJECT, expr.operator, "operands");
+            method.visitVarInsn(ALOAD, right);
+            toDouble(Kind.OBJECT, expr.operator, "operands");
+        }
+    }
+
+    /**
+     * @param check {@link JvmRuntime} method checking the type, they report different errors
+     */
+    private void toDouble(Kind kind, Token operator, String check) {
+        if (kind == Kind.DOUBLE) return;
+
+        box(kind);
+        loadToken(operator);
+        method.visitMethodInsn(INVOKESTATIC, RUNTIME, check, "(" + OBJECT_DESCRIPTOR + TOKEN_DESCRIPTOR + ")D", false);
+    }
+
+    /**
+     * Comparisons with NaN are false, so NaN compares as 1 for {@code <} and as -1 for {@code >}
+     */
+    private void compare(TokenType operator) {
+        Label isTrue = new Label();
+        Label end = new Label();
+
+        switch (operator) {
+            case LESS:
+                method.visitInsn(DCMPG);
+                method.visitJumpInsn(IFLT, isTrue);
+                break;
+            case LESS_EQUAL:
+                method.visitInsn(DCMPG);
+                method.visitJumpInsn(IFLE, isTrue);
+                break;
+            case GREATER:
+                method.visitInsn(DCMPL);
+                method.visitJumpInsn(IFGT, isTrue);
+                break;
+            default:
+                method.visitInsn(DCMPL);
+                method.visitJumpInsn(IFGE, isTrue);
+                break;
+        }
+        method.visitInsn(ICONST_0);
+        method.visitJumpInsn(GOTO, end);
+        method.visitLabel(isTrue);
+        method.visitInsn(ICONST_1);
+        method.visitLabel(end);
+    }
+
+    private void equal(Expr.Binary expr) {
+        if (kindOf(expr.left) == Kind.DOUBLE && kindOf(expr.right) == Kind.DOUBLE) {
+            compile(expr.left);
+            compile(expr.right);
+            method.visitMethodInsn(INVOKESTATIC, RUNTIME, "equal", "(DD)Z", false);
+        } else {
+            box(compile(expr.left));
+            box(compile(expr.right));
+            method.visitMethodInsn(INVOKESTATIC, VALUES, "isEqual", "(" + OBJECT_DESCRIPTOR + OBJECT_DESCRIPTOR + ")Z", false);
+        }
+    }
+
+    private void condition(Expr expr) {
+        truthiness(compile(expr));
+    }
+
+    /**
+     * Replaces the value on the stack with 1 if it's truthy, 0 otherwise
+     */
+    private void truthiness(Kind kind) {
+        switch (kind) {
+            case BOOLEAN:
+                break;
+            case DOUBLE:
+                method.visitInsn(POP2);
+                method.visitInsn(ICONST_1);
+                break;
+            default:
+                method.visitMethodInsn(INVOKESTATIC, VALUES, "isTruthy", "(" + OBJECT_DESCRIPTOR + ")Z", false);
+                break;
+        }
+    }
+
+    private void box(Kind kind) {
+        if (kind == Kind.DOUBLE) {
+            method.visitMethodInsn(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;", false);
+        } else if (kind == Kind.BOOLEAN) {
+            method.visitMethodInsn(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;", false);
+        }
+    }
+
+    private void pop(Kind kind) {
+        method.visitInsn(kind == Kind.DOUBLE ? POP2 : POP);
+    }
+
+    /**
+     * @return the compiled function a call goes straight to, if the callee is a global with that name
+     */
+    private Stmt.Function directCallTarget(Expr.Call expr) {
+        if (!(expr.callee instanceof Expr.Variable)) return null;
+
+        Expr.Variable callee = (Expr.Variable) expr.callee;
+        if (callee.depth != Resolver.GLOBAL) return null;
+
+        Stmt.Function target = functionsByName.get(callee.name.getSymbol());
+        if (target == null || target.params.size() != expr.arguments.size()) return null;
+        return target;
+    }
+
+    /**
+     * Looks the callee up only if the globals changed since the site last checked it still names the target.
+     * The arguments are evaluated after the callee, into locals, and then passed either to the target's method
+     * or, if the global holds something else now, to a generic call.
+     */
+    private void directCall(Expr.Call expr, Stmt.Function target) {
+        Token name = ((Expr.Variable) expr.callee).name;
+        int site = callSites++;
+        int callee = newLocal(1);
+        int direct = newLocal(1);
+        Label evaluateArguments = new Label();
+        Label genericCall = new Label();
+        Label end = new Label();
+
+        method.visitInsn(ACONST_NULL);
+        method.visitVarInsn(ASTORE, callee);
+        method.visitInsn(ICONST_1);
+        method.visitVarInsn(ISTORE, direct);
+
+        loadCallSite(site);
+        method.visitInsn(IALOAD);
+        callablesVersion();
+        method.visitJumpInsn(IF_ICMPEQ, evaluateArguments);
+
+        method.visitFieldInsn(GETSTATIC, className, "globals", ROOT_ENVIRONMENT_DESCRIPTOR);
+        loadToken(name);
+        method.visitMethodInsn(INVOKESTATIC, RUNTIME, "global",
+                "(" + ROOT_ENVIRONMENT_DESCRIPTOR + TOKEN_DESCRIPTOR + ")" + OBJECT_DESCRIPTOR, false);
+        method.visitInsn(DUP);
+        method.visitVarInsn(ASTORE, callee);
+        loadConstant(target, CompiledFunction.class);
+        Label bound = new Label();
+        method.visitJumpInsn(IF_ACMPEQ, bound);
+        method.visitInsn(ICONST_0);
+        method.visitVarInsn(ISTORE, direct);
+        method.visitJumpInsn(GOTO, evaluateArguments);
+        method.visitLabel(bound);
+        loadCallSite(site);
+        callablesVersion();
+        method.visitInsn(IASTORE);
+
+        method.visitLabel(evaluateArguments);
+        int[] arguments = new int[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            box(compile(expr.arguments.get(i)));
+            arguments[i] = newLocal(1);
+            method.visitVarInsn(ASTORE, arguments[i]);
+        }
+        method.visitVarInsn(ILOAD, direct);
+        method.visitJumpInsn(IFEQ, genericCall);
+        for (int argument : arguments) {
+            method.visitVarInsn(ALOAD, argument);
+        }
+        method.visitMethodInsn(INVOKESTATIC, className, functionMethod(functionIndexes.get(target)), functionDescriptor(target), false);
+        method.visitJumpInsn(GOTO, end);
+
+        method.visitLabel(genericCall);
+        method.visitFieldInsn(GETSTATIC, className, "interpreter", INTERPRETER_DESCRIPTOR);
+        method.visitVarInsn(ALOAD, callee);
+        pushInt(arguments.length);
+        method.visitTypeInsn(ANEWARRAY, OBJECT);
+        for (int i = 0; i < arguments.length; i++) {
+            method.visitInsn(DUP);
+            pushInt(i);
+            method.visitVarInsn(ALOAD, arguments[i]);
+            method.visitInsn(AASTORE);
+        }
+        genericCall(expr.paren);
+        method.visitLabel(end);
+    }
+
+    /**
+     * Expects the interpreter, the callee and the arguments array on the stack
+     */
+    private void genericCall(Token paren) {
+        loadToken(paren);
+        method.visitMethodInsn(INVOKESTATIC, RUNTIME, "call", "(" + INTERPRETER_DESCRIPTOR + OBJECT_DESCRIPTOR
+                + "[" + OBJECT_DESCRIPTOR + TOKEN_DESCRIPTOR + ")" + OBJECT_DESCRIPTOR, false);
+    }
+
+    /**
+     * Leaves the array of the call sites and the index of the site on the stack
+     */
+    private void loadCallSite(int site) {
+        method.visitFieldInsn(GETSTATIC, className, "callSites", "[I");
+        pushInt(site);
+    }
+
+    private void callablesVersion() {
+        method.visitFieldInsn(GETSTATIC, className, "globals", ROOT_ENVIRONMENT_DESCRIPTOR);
+        method.visitMethodInsn(INVOKEVIRTUAL, ROOT_ENVIRONMENT, "callablesVersion", "()I", false);
+    }
+
+    private void beginScope(int slotCount) {
+        scopes.push(new Scope(nextLocal, slotCount));
+        nextLocal += slotCount;
+        checkLocals();
+    }
+
+    private void endScope() {
+        nextLocal = scopes.pop().base;
+    }
+
+    private int newLocal(int size) {
+        int local = nextLocal;
+        nextLocal += size;
+        checkLocals();
+        return local;
+    }
+
+    /**
+     * ASM reports code that is too large once the class is written, too many locals are reported the same way
+     * as soon as they're taken
+     */
+    private void checkLocals() {
+        if (nextLocal > MAX_LOCALS) throw new MethodTooLargeException(className, methodName, methodDescriptor, 0);
+    }
+
+    private Scope scope(int depth) {
+        Iterator<Scope> scopesOutwards = scopes.iterator();
+        for (int i = 0; i < depth; i++) {
+            scopesOutwards.next();
+        }
+        return scopesOutwards.next();
+    }
+
+    private int local(int depth, int slot) {
+        return scope(depth).base + slot;
+    }
+
+    private boolean mayBeUninitialized(int depth, int slot) {
+        return scope(depth).mayBeUninitialized[slot];
+    }
+
+    /**
+     * Spends fuel of the interpreter, same as it does at loops and calls
+     */
+    private void tick(Token at) {
+        method.visitFieldInsn(GETSTATIC, className, "interpreter", INTERPRETER_DESCRIPTOR);
+        loadToken(at);
+        method.visitMethodInsn(INVOKEVIRTUAL, INTERPRETER, "tick", "(" + TOKEN_DESCRIPTOR + ")V", false);
+    }
+
+    private void loadToken(Token token) {
+        loadConstant(token, Token.class);
+    }
+
+    private void loadConstant(Object value, Class<?> type) {
+        method.visitFieldInsn(GETSTATIC, className, "constants", "[" + OBJECT_DESCRIPTOR);
+        pushInt(constant(value));
+        method.visitInsn(AALOAD);
+        method.visitTypeInsn(CHECKCAST, Type.getInternalName(type));
+    }
+
+    private int constant(Object value) {
+        Integer index = constantIndexes.get(value);
+        if (index != null) return index;
+
+        constants.add(value);
+        constantIndexes.put(value, constants.size() - 1);
+        return constants.size() - 1;
+    }
+
+    private void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            method.visitInsn(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            method.visitIntInsn(BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            method.visitIntInsn(SIPUSH, value);
+        } else {
+            method.visitLdcInsn(value);
+        }
+    }
+
+    private static String functionMethod(int index) {
+        return "function" + index;
+    }
+
+    private static String functionDescriptor(Stmt.Function function) {
+        return functionType(function).toMethodDescriptorString();
+    }
+
+    private static MethodType functionType(Stmt.Function function) {
+        List<Class<?>> parameters = Collections.nCopies(function.params.size(), Object.class);
+        return MethodType.methodType(Object.class, parameters);
+    }
+
+    private static Set<Stmt> identitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    /**
+     * What the code of an expression leaves on the JVM stack
+     */
+    enum Kind {
+        OBJECT,
+        DOUBLE,
+        // an int, 0 or 1
+        BOOLEAN
+    }
+
+    private static class Scope {
+        // JVM local of slot 0
+        final int base;
+        // declared without an initializer, reads check for VariableUninitialized
+        final boolean[] mayBeUninitialized;
+
+        Scope(int base, int slotCount) {
+            this.base = base;
+            this.mayBeUninitialized = new boolean[slotCount];
+        }
+    }
+}
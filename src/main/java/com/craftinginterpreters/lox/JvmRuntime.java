@@ -0,0 +1,90 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/**
+ * Operations called by the classes generated by {@link JvmCompiler}, whatever is too big to emit inline.
+ * Errors are the same as the {@link Interpreter} reports.
+ */
+final class JvmRuntime {
+    private JvmRuntime() {
+    }
+
+    static Object global(RootEnvironment globals, Token name) {
+        return initialized(globals.get(name), name);
+    }
+
+    static Object initialized(Object value, Token name) {
+        if (value == Interpreter.VariableUninitialized.UNINITIALIZED) {
+            throw new LoxRuntimeError(name, "Uninitialized variable ");
+        }
+        return value;
+    }
+
+    static double operand(Object value, Token operator) {
+        if (value instanceof Double) return (double) value;
+        throw new LoxRuntimeError(operator, "Operand must be a number.");
+    }
+
+    static double operands(Object value, Token operator) {
+        if (value instanceof Double) return (double) value;
+        throw new LoxRuntimeError(operator, "Operands must be numbers.");
+    }
+
+    static double divide(double lhs, double rhs, Token operator) {
+        double result = lhs / rhs;
+        if (Double.isInfinite(result)) {
+            throw new LoxRuntimeError(operator, "Division by zero");
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link Values#isEqual} of the boxed numbers
+     */
+    static boolean equal(double lhs, double rhs) {
+        return Double.doubleToLongBits(lhs) == Double.doubleToLongBits(rhs);
+    }
+
+    static Object plus(Object lhs, Object rhs, Token operator, Interpreter interpreter) {
+        if (lhs instanceof Double && rhs instanceof Double) {
+            return (double) lhs + (double) rhs;
+        } else if (Values.isString(lhs) || Values.isString(rhs)) {
+            return interpreter.concatenate(operator, lhs, rhs);
+        } else {
+            throw new LoxRuntimeError(operator, "Only Strings and Numbers are supported");
+        }
+    }
+
+    static Object call(Interpreter interpreter, Object callee, Object[] arguments, Token paren) {
+        if (!(callee instanceof LoxCallable)) {
+            throw new LoxRuntimeError(paren, "Can only call functions and classes");
+        }
+
+        LoxCallable function = (LoxCallable) callee;
+        if (arguments.length != function.arity()) {
+            throw new LoxRuntimeError(paren, String.format(
+                    "Expected %s arguments but got %s.",
+                    function.arity(),
+                    arguments.length
+            ));
+        }
+
+        if (function instanceof CompiledFunction) return ((CompiledFunction) function).invoke(arguments);
+        return function.call(interpreter, Arrays.asList(arguments));
+    }
+
+    /**
+     * Declared to return a value, so the generated code can treat it as an expression
+     */
+    static Object unexpectedOperator(Token operator) {
+        throw new LoxRuntimeError(operator, "Unexpected token");
+    }
+
+    /**
+     * Falls back to the interpreter for a top-level statement the compiler doesn't support
+     */
+    static void execute(Interpreter interpreter, Stmt statement) {
+        statement.accept(interpreter);
+    }
+}
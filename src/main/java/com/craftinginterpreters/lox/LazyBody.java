@@ -0,0 +1,88 @@
+package com.craftinginterpreters.lox;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Body of a global function the {@link Parser} only brace-matched. The tokens are parsed, folded and the function
+ * resolved the first time the body is read, usually by the first call of the function, so functions that are never
+ * called cost no more than scanning.
+ *
+ * Global functions can't capture local variables, so resolving one on its own gives the same result as resolving it
+ * with the rest of the program. Syntax and resolution errors in the body are reported when it's parsed,
+ * and the function then fails with a runtime error.
+ */
+final class LazyBody extends AbstractList<Stmt> {
+    private final TokenBuffer tokens;
+    // of the parser that skipped the body
+    private final ErrorReporter reporter;
+    // from the first token of the body to the closing brace
+    private final int start;
+    private final int end;
+    private Stmt.Function function;
+
+    // set while the lock is held, statements before the function is resolved
+    private List<Stmt> statements;
+    private LoxRuntimeError error;
+    private volatile boolean ready = false;
+
+    LazyBody(TokenBuffer tokens, int start, int end, ErrorReporter reporter) {
+        this.tokens = tokens;
+        this.reporter = reporter;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @return the statements of a function body, parsing it first if it's lazy
+     */
+    static List<Stmt> force(List<Stmt> body) {
+        return body instanceof LazyBody ? ((LazyBody) body).statements() : body;
+    }
+
+    void declaredBy(Stmt.Function function) {
+        this.function = function;
+    }
+
+    /**
+     * Whether the statements can be read without parsing them
+     */
+    boolean isParsed() {
+        return statements != null;
+    }
+
+    @Override
+    public Stmt get(int index) {
+        return statements().get(index);
+    }
+
+    @Override
+    public int size() {
+        return statements().size();
+    }
+
+    private List<Stmt> statements() {
+        if (!ready) parse();
+        if (error != null) throw error;
+        return statements;
+    }
+
+    private synchronized void parse() {
+        // the resolver reads the statements while the function is being resolved
+        if (ready || statements != null) return;
+
+        int errors = reporter.errorCount();
+        List<Stmt> parsed = new Parser(tokens.cursor(start, end + 1), reporter).parseBlock();
+        if (reporter.errorCount() == errors) {
+            statements = new ConstantFolder().fold(parsed);
+            new Resolver(reporter).resolve(List.of(function));
+        } else {
+            // statements that failed to parse are null, there's nothing to fold or resolve
+            statements = List.of();
+        }
+        if (reporter.errorCount() > errors) {
+            error = new LoxRuntimeError(function.name, "Function body has errors. ");
+        }
+        ready = true;
+    }
+}
@@ -1,45 +1,133 @@
 package com.craftinginterpreters.lox;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
 public class Lox {
-    private static boolean hadParseError = false;
-    private static boolean hadRuntimeError = false;
-    private static final Interpreter interpreter = new Interpreter();
+    private static final long PROFILER_INTERVAL_MILLIS = 1;
+    private static final long DEFAULT_HOST_TIMEOUT_MILLIS = 10_000;
+    private static final int HOST_CACHE_SIZE = 1024;
+
+    private static final ErrorReporter reporter = new ErrorReporter(System.err);
+    private static final Interpreter interpreter = new Interpreter(reporter);
+    private static final VM vm = new VM(reporter);
+    // run on the bytecode VM instead of the tree-walking Interpreter
+    private static boolean useVm = false;
+    // compile to JVM classes instead of interpreting the tree
+    private static boolean useJvm = false;
+    // print interpreter counters to stderr after running a script
+    private static boolean printStats = false;
+    // file to write the collapsed stacks of a sampling profile to, null if not profiling
+    private static String profileOutput = null;
+    // parse bodies of global functions on their first call, only the tree-walking interpreter supports it
+    private static boolean lazyParsing = false;
+    // directory of the ProgramCache, null if scripts are always parsed
+    private static String cacheDirectory = null;
+    // serve scripts from stdin with a ScriptHost instead of running one
+    private static boolean host = false;
+    // ticks of Fuel a script may spend, see Fuel
+    private static long fuel = Long.MAX_VALUE;
+    // bytes a script may hold, see HeapAccount
+    private static long maxHeap = Long.MAX_VALUE;
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        useVm = arguments.remove("--vm");
+        useJvm = arguments.remove("--jvm");
+        printStats = arguments.remove("--stats");
+        profileOutput = removeOption(arguments, "--profile=");
+        lazyParsing = arguments.remove("--lazy") && !useVm && !useJvm;
+        cacheDirectory = removeOption(arguments, "--cache=");
+        host = arguments.remove("--host");
+        String maxScripts = removeOption(arguments, "--max-scripts=");
+        String timeout = removeOption(arguments, "--timeout=");
+        String fuelOption = removeOption(arguments, "--fuel=");
+        if (fuelOption != null) fuel = Long.parseLong(fuelOption);
+        String maxHeapOption = removeOption(arguments, "--max-heap=");
+        if (maxHeapOption != null) maxHeap = Long.parseLong(maxHeapOption);
+
+        if (arguments.size() > 1 || (host && !arguments.isEmpty())) {
+            System.out.println("Usage: jlox [--vm] [--jvm] [--stats] [--lazy] [--cache=<dir>] [--profile=<file>] [--fuel=<ticks>] [--max-heap=<bytes>] [script]");
+            System.out.println("       jlox --host [--max-scripts=<n>] [--timeout=<millis>] [--fuel=<ticks>] [--max-heap=<bytes>]");
             System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        } else if (host) {
+            runHost(maxScripts == null ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(maxScripts),
+                    timeout == null ? DEFAULT_HOST_TIMEOUT_MILLIS : Long.parseLong(timeout));
+        } else if (arguments.size() == 1) {
+            runFile(arguments.get(0));
         } else {
             runPrompt();
         }
     }
 
-    static void error(int line, String message) {
-        report(line, "", message);
-    }
-
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
+        // without a limit nothing needs to be counted, a script run from a file isn't cancelled
+        interpreter.setFuel(fuel == Long.MAX_VALUE ? Fuel.unmetered() : new Fuel(fuel));
+        vm.setFuel(fuel == Long.MAX_VALUE ? Fuel.unmetered() : new Fuel(fuel));
+        HeapAccount heap = new HeapAccount(maxHeap);
+        interpreter.setHeap(heap);
+        vm.setHeap(heap);
+        // written to stdout in blocks rather than flushed after every line like System.out
+        OutputSink output = OutputSink.buffered(
+                Channels.newChannel(new FileOutputStream(FileDescriptor.out)), Charset.defaultCharset());
+        interpreter.setOutput(output);
+        vm.setOutput(output);
+        List<Stmt> program;
+        if (cacheDirectory != null) {
+            program = parseCached(Paths.get(path), new ProgramCache(Paths.get(cacheDirectory)));
+        } else {
+            List<Stmt> parseResult = lazyParsing ? parseLazily(Paths.get(path)) : parse(Paths.get(path));
+            if (reporter.hadError()) System.exit(65);
+            program = optimize(parseResult);
+        }
+        resolve(program);
+        if (reporter.hadError()) System.exit(65);
 
-        List<Stmt> parseResult = parse(new String(bytes, Charset.defaultCharset()));
-        if (hadParseError) System.exit(65);
+        try {
+            if (profileOutput != null) {
+                profile(program, Paths.get(profileOutput));
+            } else {
+                execute(program);
+            }
+        } finally {
+            output.flush();
+        }
+        if (printStats) printStats(heap);
+        if (reporter.hadError()) System.exit(65);
+        if (reporter.hadRuntimeError()) System.exit(70);
+    }
 
-        interpreter.interpret(parseResult);
-        if (hadRuntimeError) System.exit(70);
+    /**
+     * Runs the scripts sent to stdin concurrently, see {@link ScriptHost#serve} for the protocol
+     */
+    private static void runHost(int maxScripts, long timeoutMillis) throws IOException {
+        try (ScriptHost scriptHost = new ScriptHost(maxScripts, timeoutMillis, fuel, maxHeap, HOST_CACHE_SIZE)) {
+            scriptHost.serve(System.in, new BufferedOutputStream(System.out));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     private static void runPrompt() throws IOException {
+        // every result shows up right away
+        interpreter.setOutput(OutputSink.of(System.out));
+        vm.setOutput(OutputSink.of(System.out));
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
 
@@ -47,43 +135,127 @@ public class Lox {
             System.out.print("> ");
             List<Stmt> parseResult = parse(reader.readLine());
             interpretInRepl(parseResult);
-            hadParseError = false;
+            reporter.reset();
         }
     }
 
-    private static List<Stmt> parse(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+    /**
+     * Tokens are scanned as the parser asks for them, the file is never read into memory as a whole
+     */
+    private static List<Stmt> parse(Path path) throws IOException {
+        try (Reader source = new InputStreamReader(
+                new MappedFileInputStream(FileChannel.open(path)), Charset.defaultCharset())) {
+            return new Parser(new Scanner(source, reporter), reporter).parse();
+        }
+    }
+
+    /**
+     * Function bodies are parsed from the tokens on first call, so the tokens are kept
+     */
+    private static List<Stmt> parseLazily(Path path) throws IOException {
+        String source = Files.readString(path, Charset.defaultCharset());
+        return new Parser(new Scanner(source, reporter).scanBuffer(), true, reporter).parse();
+    }
 
-        Parser parser = new Parser(tokens);
+    /**
+     * Skips scanning and parsing if the cache has the script, parses it eagerly and caches it otherwise
+     */
+    private static List<Stmt> parseCached(Path path, ProgramCache cache) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        List<Stmt> cached = cache.load(bytes);
+        if (cached != null) return cached;
 
-        return parser.parse();
+        List<Stmt> parseResult = parse(new String(bytes, Charset.defaultCharset()));
+        if (reporter.hadError()) System.exit(65);
+        List<Stmt> program = optimize(parseResult);
+        cache.store(bytes, program);
+        return program;
     }
 
-    private static void interpretInRepl(List<Stmt> parseResult) {
-        // Stop if there was a syntax error.
-        if (hadParseError) return;
+    private static List<Stmt> parse(String source) {
+        return new Parser(new Scanner(source, reporter).scanBuffer().tokens(), reporter).parse();
+    }
 
-        printLastStatement(parseResult);
-        interpreter.interpret(parseResult);
+    private static List<Stmt> optimize(List<Stmt> statements) {
+        return new ConstantFolder().fold(statements);
     }
 
-    private static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error" + where + ": " + message);
-        hadParseError = true;
+    private static void resolve(List<Stmt> statements) {
+        Resolver resolver = new Resolver(reporter);
+        resolver.resolve(statements);
     }
 
-    static void error(Token token, String message) {
-        if (token.getType() == TokenType.EOF) {
-            report(token.getLine(), " at end", message);
+    private static void execute(List<Stmt> statements) {
+        if (useVm) {
+            BytecodeCompiler compiler = new BytecodeCompiler(vm.globals, reporter);
+            VmFunction script = compiler.compile(statements);
+            if (reporter.hadError()) return;
+
+            vm.interpret(script);
+        } else if (useJvm) {
+            try {
+                new JvmCompiler(interpreter).compile(statements).run();
+            } catch (LoxRuntimeError error) {
+                interpreter.flushOutput();
+                reporter.runtimeError(error);
+            }
         } else {
-            report(token.getLine(), " at '" + token.getLexeme() + "'", message);
+            interpreter.interpret(statements);
+        }
+    }
+
+    private static void profile(List<Stmt> program, Path output) throws IOException {
+        if (useVm || useJvm) {
+            System.err.println("Profiling is only supported by the tree-walking interpreter.");
+            execute(program);
+            return;
+        }
+
+        Profiler profiler = new Profiler(PROFILER_INTERVAL_MILLIS);
+        interpreter.setProfiler(profiler);
+        profiler.start();
+        try {
+            execute(program);
+        } finally {
+            profiler.stop();
+            interpreter.setProfiler(null);
+        }
+
+        try (Writer out = Files.newBufferedWriter(output)) {
+            profiler.writeCollapsed(out);
+        }
+    }
+
+    private static void printStats(HeapAccount heap) {
+        System.err.printf("heap: %d bytes peak, %d bytes total%n", heap.peakBytes(), heap.totalBytes());
+        if (useVm) return;
+        System.err.printf("inline caches: %d hits, %d misses%n",
+                interpreter.inlineCacheHits(), interpreter.inlineCacheMisses());
+    }
+
+    /**
+     * Removes the {@code <prefix><value>} argument and returns the value, or null if there's no such argument
+     */
+    private static String removeOption(List<String> arguments, String prefix) {
+        for (int i = 0; i < arguments.size(); i++) {
+            if (arguments.get(i).startsWith(prefix)) {
+                return arguments.remove(i).substring(prefix.length());
+            }
         }
+        return null;
     }
 
-    static void runtimeError(LoxRuntimeError error) {
-        System.err.println(error.getMessage() + "[line " + error.token.getLine() + "]");
-        hadRuntimeError = true;
+    private static void interpretInRepl(List<Stmt> parseResult) {
+        // Stop if there was a syntax error.
+        if (reporter.hadError()) return;
+
+        printLastStatement(parseResult);
+
+        List<Stmt> program = optimize(parseResult);
+        resolve(program);
+        if (reporter.hadError()) return;
+
+        execute(program);
     }
 
     private static void printLastStatement(List<Stmt> statements) {
@@ -0,0 +1,113 @@
+package com.craftinginterpreters.lox;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.PrintStream;
+
+/**
+ * Embedding API: isolated state to run {@link Script}s with, its own globals and errors.
+ *
+ * A context runs scripts one at a time on the calling thread, globals defined by one are seen by the next.
+ * Separate contexts share nothing mutable, so they can run concurrently, e.g. one per worker thread,
+ * sharing the same compiled scripts.
+ */
+public final class LoxContext {
+    private final ErrorReporter errors;
+    private final Interpreter interpreter;
+    private final OutputSink output;
+
+    public LoxContext(PrintStream errorOutput) {
+        this(System.out, errorOutput);
+    }
+
+    public LoxContext(PrintStream output, PrintStream errorOutput) {
+        this(OutputSink.of(output), errorOutput);
+    }
+
+    /**
+     * @param output e.g. {@link OutputSink#of(StringBuilder)} to capture what scripts print
+     */
+    public LoxContext(OutputSink output, PrintStream errorOutput) {
+        this.errors = new ErrorReporter(errorOutput);
+        this.interpreter = new Interpreter(errors);
+        this.output = output;
+        interpreter.setOutput(output);
+    }
+
+    /**
+     * @return null if errors were reported, the script can also be run by other contexts
+     */
+    @Nullable
+    public Script compile(String source) {
+        errors.reset();
+        return Script.compile(source, errors);
+    }
+
+    /**
+     * @return whether the script ran to the end, and the heap it used
+     */
+    public Result run(Script script) {
+        return run(script, Fuel.unmetered());
+    }
+
+    /**
+     * @return whether the script ran to the end, it doesn't after an {@link ExecutionStoppedError} when the fuel runs
+     * out or is cancelled
+     */
+    public Result run(Script script, Fuel fuel) {
+        return run(script, fuel, HeapAccount.unlimited());
+    }
+
+    /**
+     * @param heap counts what the script allocates, it's stopped with an {@link ExecutionStoppedError} when it goes
+     *             over the account's limit
+     */
+    public Result run(Script script, Fuel fuel, HeapAccount heap) {
+        errors.reset();
+        interpreter.setFuel(fuel);
+        interpreter.setHeap(heap);
+        try {
+            boolean succeeded = interpreter.interpret(script.statements);
+            return new Result(succeeded, heap.peakBytes(), heap.totalBytes());
+        } finally {
+            output.flush();
+        }
+    }
+
+    /**
+     * @return the errors of the last compile or run
+     */
+    public ErrorReporter errors() {
+        return errors;
+    }
+
+    /**
+     * How a run ended and the heap it used, see {@link HeapAccount}
+     */
+    public static final class Result {
+        private final boolean succeeded;
+        private final long peakBytes;
+        private final long totalBytes;
+
+        Result(boolean succeeded, long peakBytes, long totalBytes) {
+            this.succeeded = succeeded;
+            this.peakBytes = peakBytes;
+            this.totalBytes = totalBytes;
+        }
+
+        /**
+         * @return false if the script stopped on a runtime error
+         */
+        public boolean succeeded() {
+            return succeeded;
+        }
+
+        public long peakBytes() {
+            return peakBytes;
+        }
+
+        public long totalBytes() {
+            return totalBytes;
+        }
+    }
+}
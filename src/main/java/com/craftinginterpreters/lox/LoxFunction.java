@@ -6,25 +6,40 @@ import java.util.List;
 
 public class LoxFunction implements LoxCallable {
     private final Function declaration;
-    private final Environment closure;
+    // only the variables the function captures, see Resolver
+    private final Cell[] upvalues;
+    private final Environment globals;
 
-    public LoxFunction(Function declaration, Environment closure) {
+    public LoxFunction(Function declaration, Cell[] upvalues, Environment globals) {
         this.declaration = declaration;
-        this.closure = closure;
+        this.upvalues = upvalues;
+        this.globals = globals;
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new ChildEnvironment(closure);
+        SlotEnvironment frame = newFrame();
         for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).getLexeme(), arguments.get(i));
+            frame.define(i, arguments.get(i));
         }
-        try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            return returnValue.value;
-        }
-        return null;
+        return call(interpreter, frame);
+    }
+
+    /**
+     * Environment of a new call, parameters take its first slots
+     */
+    SlotEnvironment newFrame() {
+        // a lazy body gets its slotCount once it's parsed and resolved
+        LazyBody.force(declaration.body);
+        return new SlotEnvironment(globals, declaration.slotCount, declaration.capturedSlots);
+    }
+
+    /**
+     * @param frame created by {@link #newFrame()} with the arguments already defined
+     */
+    Object call(Interpreter interpreter, SlotEnvironment frame) {
+        Interpreter.Completion completion = interpreter.executeFunction(declaration, frame, upvalues);
+        return completion == Interpreter.Completion.RETURN ? interpreter.takeReturnValue() : null;
     }
 
     @Override
@@ -2,9 +2,20 @@ package com.craftinginterpreters.lox;
 
 public class LoxRuntimeError extends RuntimeException {
     final Token token;
+    final int line;
 
     public LoxRuntimeError(Token token, String message) {
         super(message);
         this.token = token;
+        this.line = token.getLine();
+    }
+
+    /**
+     * For errors raised by the {@link VM}, which only keeps line numbers around
+     */
+    public LoxRuntimeError(int line, String message) {
+        super(message);
+        this.token = null;
+        this.line = line;
     }
 }
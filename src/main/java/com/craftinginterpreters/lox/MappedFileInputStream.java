@@ -0,0 +1,64 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a file through a window memory-mapped at a time, so the contents are never copied to the heap as a whole
+ * and files of any size can be read
+ */
+class MappedFileInputStream extends InputStream {
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long size;
+    // file position the window starts at
+    private long windowStart = 0;
+    private MappedByteBuffer window;
+
+    MappedFileInputStream(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.window = map(0);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!hasRemaining()) return -1;
+        return window.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+        if (!hasRemaining()) return -1;
+
+        int count = Math.min(length, window.remaining());
+        window.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Maps the next window once the current one is read
+     */
+    private boolean hasRemaining() throws IOException {
+        if (window.hasRemaining()) return true;
+
+        long next = windowStart + window.capacity();
+        if (next >= size) return false;
+        windowStart = next;
+        window = map(next);
+        return true;
+    }
+
+    private MappedByteBuffer map(long position) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, size - position));
+    }
+}
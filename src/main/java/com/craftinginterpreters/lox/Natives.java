@@ -0,0 +1,28 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+/**
+ * Native functions available to Lox programs as globals
+ */
+final class Natives {
+    private Natives() {
+    }
+
+    static final LoxCallable CLOCK = new LoxCallable() {
+        @Override
+        public int arity() {
+            return 0;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+            return (double) System.currentTimeMillis() / 1000.0;
+        }
+
+        @Override
+        public String toString() {
+            return "<native fn clock>";
+        }
+    };
+}
@@ -0,0 +1,49 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Instruction set of the {@link VM}.
+ *
+ * Operands follow the opcode in the {@link Chunk}: "u8" is one byte, "u16" is two bytes, big-endian.
+ */
+final class OpCode {
+    private OpCode() {
+    }
+
+    static final byte CONSTANT = 0;         // u16 constant index
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+
+    static final byte GET_LOCAL = 5;        // u8 stack slot relative to the frame
+    static final byte SET_LOCAL = 6;        // u8 stack slot relative to the frame
+    static final byte GET_GLOBAL = 7;       // u16 slot in VmGlobals
+    static final byte DEFINE_GLOBAL = 8;    // u16 slot in VmGlobals
+    static final byte SET_GLOBAL = 9;       // u16 slot in VmGlobals
+    static final byte GET_UPVALUE = 10;     // u8 upvalue index
+    static final byte SET_UPVALUE = 11;     // u8 upvalue index
+
+    static final byte EQUAL = 12;
+    static final byte NOT_EQUAL = 13;
+    static final byte GREATER = 14;
+    static final byte GREATER_EQUAL = 15;
+    static final byte LESS = 16;
+    static final byte LESS_EQUAL = 17;
+    static final byte ADD = 18;
+    static final byte SUBTRACT = 19;
+    static final byte MULTIPLY = 20;
+    static final byte DIVIDE = 21;
+    static final byte NOT = 22;
+    static final byte NEGATE = 23;
+
+    static final byte PRINT = 24;
+    static final byte JUMP = 25;            // u16 forward offset
+    static final byte JUMP_IF_FALSE = 26;   // u16 forward offset, leaves the condition on the stack
+    static final byte LOOP = 27;            // u16 backward offset
+    static final byte CALL = 28;            // u8 argument count
+    static final byte CLOSURE = 29;         // u16 constant index of the VmFunction, then (u8 isLocal, u8 index) per upvalue
+    static final byte CLOSE_UPVALUE = 30;
+    static final byte RETURN = 31;
+    static final byte ERROR = 32;           // u16 constant index of the message
+    static final byte POP_JUMP_IF_FALSE = 33; // u16 forward offset, pops the condition
+}
@@ -0,0 +1,87 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Where {@code print} statements write to. Each statement writes one line.
+ */
+public interface OutputSink {
+    void println(CharSequence text);
+
+    /**
+     * A number formatted the way Lox prints it, sinks with a buffer format it into the buffer
+     */
+    default void println(double number) {
+        println(Values.formatNumber(number));
+    }
+
+    /**
+     * Writes out what's buffered, the engines call it before reporting a runtime error
+     */
+    void flush();
+
+    /**
+     * Writes to whatever {@link System#out} is at the time, unbuffered
+     */
+    static OutputSink systemOut() {
+        return new OutputSink() {
+            @Override
+            public void println(CharSequence text) {
+                System.out.println(text);
+            }
+
+            @Override
+            public void flush() {
+                System.out.flush();
+            }
+        };
+    }
+
+    /**
+     * Unbuffered, every line is written to the stream right away, e.g. for the REPL
+     */
+    static OutputSink of(PrintStream stream) {
+        return new OutputSink() {
+            @Override
+            public void println(CharSequence text) {
+                stream.println(text);
+            }
+
+            @Override
+            public void flush() {
+                stream.flush();
+            }
+        };
+    }
+
+    /**
+     * Appends the lines to {@code builder}, lines end with {@link System#lineSeparator()}
+     */
+    static OutputSink of(StringBuilder builder) {
+        return new OutputSink() {
+            @Override
+            public void println(CharSequence text) {
+                builder.append(text).append(System.lineSeparator());
+            }
+
+            @Override
+            public void println(double number) {
+                Values.appendNumber(builder, number);
+                builder.append(System.lineSeparator());
+            }
+
+            @Override
+            public void flush() {
+            }
+        };
+    }
+
+    /**
+     * Collects lines and writes them to the channel in blocks, see {@link BufferedOutput}
+     */
+    static OutputSink buffered(WritableByteChannel channel, Charset charset) {
+        return new BufferedOutput(channel, charset);
+    }
+}
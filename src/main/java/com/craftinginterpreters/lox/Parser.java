@@ -78,13 +78,47 @@ import static com.craftinginterpreters.lox.TokenType.*;
  *                    | IDENTIFIER ;
  */
 class Parser {
-    private final List<Token> tokens;
+    private final ErrorReporter reporter;
+    private final TokenSource tokens;
+    // only set when bodies of global functions are parsed lazily
+    private final TokenBuffer buffer;
+    private final TokenBuffer.Cursor cursor;
     private boolean expectBreak = false;
+    private int blockDepth = 0;
 
-    private int current = 0;
+    // one token of lookahead, the tokens before previous aren't kept
+    private Token current;
+    private Token previous;
 
     Parser(List<Token> tokens) {
+        this(TokenSource.of(tokens));
+    }
+
+    Parser(List<Token> tokens, ErrorReporter reporter) {
+        this(TokenSource.of(tokens), reporter);
+    }
+
+    Parser(TokenSource tokens) {
+        this(tokens, new ErrorReporter(System.err));
+    }
+
+    Parser(TokenSource tokens, ErrorReporter reporter) {
+        this.reporter = reporter;
         this.tokens = tokens;
+        this.buffer = null;
+        this.cursor = null;
+        this.current = tokens.nextToken();
+    }
+
+    /**
+     * Only brace-matches the bodies of global functions, they're parsed on first use, see {@link LazyBody}
+     */
+    Parser(TokenBuffer tokens, boolean lazyBodies, ErrorReporter reporter) {
+        this.reporter = reporter;
+        this.buffer = lazyBodies ? tokens : null;
+        this.cursor = tokens.cursor(0, tokens.size());
+        this.tokens = cursor;
+        this.current = cursor.nextToken();
     }
 
     List<Stmt> parse() {
@@ -96,6 +130,21 @@ class Parser {
         return statements;
     }
 
+    /**
+     * Parses the statements of a block up to its '}', e.g. the body of a {@link LazyBody}, whose braces are already
+     * known to match. Errors are reported at the same tokens as when the block is parsed with the rest of the program.
+     */
+    List<Stmt> parseBlock() {
+        List<Stmt> statements = new ArrayList<>();
+        blockDepth++;
+        // the '}' may have been skipped while recovering from an error, it's the end of the body all the same
+        while (!check(RIGHT_BRACE) && !isAtEnd()) {
+            statements.add(declaration());
+        }
+        blockDepth--;
+        return statements;
+    }
+
     /**
      * declaration → varDeclaration
      *             | statement ;
@@ -151,6 +200,7 @@ class Parser {
      * The idea is to desugar a for loop Statement into a while loop
      */
     private Stmt finishForStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'for'.");
 
         Stmt initializer;
@@ -193,7 +243,7 @@ class Parser {
         }
 
         if (condition == null) condition = new Expr.Literal(true);
-        body = new Stmt.While(condition, body);
+        body = new Stmt.While(keyword, condition, body);
 
         if (initializer != null) {
             body = new Stmt.Block(Arrays.asList(initializer, body));
@@ -246,6 +296,7 @@ class Parser {
      * whileStmt → "while" "(" expression ")" statement ;
      */
     private Stmt finishWhileStatement() {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expect '(' after 'while'.");
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expect ')' after condition.");
@@ -260,7 +311,7 @@ class Parser {
         if (outerLoop) {
             this.expectBreak = false;
         }
-        return new Stmt.While(condition, body);
+        return new Stmt.While(keyword, condition, body);
     }
 
     /**
@@ -293,14 +344,39 @@ class Parser {
     private List<Stmt> finishBlockStatement() {
         List<Stmt> statements = new ArrayList<>();
 
-        while (!check(RIGHT_BRACE) && !isAtEnd()) {
-            statements.add(declaration());
+        blockDepth++;
+        try {
+            while (!check(RIGHT_BRACE) && !isAtEnd()) {
+                statements.add(declaration());
+            }
+        } finally {
+            blockDepth--;
         }
 
         consume(RIGHT_BRACE, "Expect '}' after block.");
         return statements;
     }
 
+    /**
+     * Skips a function body up to the matching '}', falls back to parsing it if there's none
+     */
+    private List<Stmt> skipBlock() {
+        // the first token of the body is already read from the cursor
+        int start = cursor.position() - 1;
+        int depth = 1;
+        for (int i = start; i < buffer.size(); i++) {
+            TokenType type = buffer.type(i);
+            if (type == LEFT_BRACE) depth++;
+            if (type == RIGHT_BRACE && --depth == 0) {
+                cursor.seek(i);
+                current = cursor.nextToken();
+                consume(RIGHT_BRACE, "Expect '}' after block.");
+                return new LazyBody(buffer, start, i, reporter);
+            }
+        }
+        return finishBlockStatement();
+    }
+
     /**
      * expression     → comma ;
      */
@@ -329,8 +405,10 @@ class Parser {
         consume(RIGHT_PAREN, "Expect ')' after parameters");
 
         consume(LEFT_BRACE, String.format("Expect '{' before %s body", kind));
-        List<Stmt> body = finishBlockStatement();
-        return new Function(name, parameters, body);
+        List<Stmt> body = buffer != null && blockDepth == 0 ? skipBlock() : finishBlockStatement();
+        Function function = new Function(name, parameters, body);
+        if (body instanceof LazyBody) ((LazyBody) body).declaredBy(function);
+        return function;
     }
 
     /**
@@ -465,7 +543,7 @@ class Parser {
 
         if (match(List.of(PLUS, SLASH, STAR))) {
             Token previous = previous();
-            Lox.error(previous, "Not allowed as a unary operator");
+            reporter.error(previous, "Not allowed as a unary operator");
         }
 
         return call();
@@ -557,7 +635,7 @@ class Parser {
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        reporter.error(token, message);
         return new ParseError();
     }
 
@@ -611,7 +689,10 @@ class Parser {
     }
 
     private Token advance() {
-        if (!isAtEnd()) current++;
+        if (!isAtEnd()) {
+            previous = current;
+            current = tokens.nextToken();
+        }
         return previous();
     }
 
@@ -623,14 +704,14 @@ class Parser {
      * @return current token
      */
     private Token peek() {
-        return tokens.get(current);
+        return current;
     }
 
     /**
      * @return previous token
      */
     private Token previous() {
-        return tokens.get(current - 1);
+        return previous;
     }
 
     private static class ParseError extends RuntimeException {}
@@ -0,0 +1,98 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sampling profiler for Lox functions run by the {@link Interpreter}.
+ *
+ * The interpreter keeps a shadow stack of the functions being executed with {@link #enter(Stmt.Function)}
+ * and {@link #exit()}; a background thread copies it every {@code intervalMillis} and counts identical stacks.
+ * The result is written in the collapsed stack format of flame graph tools: one {@code frame;frame;frame count} line
+ * per stack, frames named after the function and the line it's declared at.
+ *
+ * The sampler reads the stack while the interpreter changes it, so a sample can be off by a call, which is fine for
+ * statistics. Nothing is recorded while no profiler is set on the interpreter.
+ */
+class Profiler {
+    static final String ROOT_FRAME = "<script>";
+
+    private final long intervalMillis;
+    // only written by the interpreter thread, depth is published last
+    private Stmt.Function[] frames = new Stmt.Function[64];
+    private volatile int depth = 0;
+
+    // only accessed by the sampler thread until it's stopped
+    private final Map<String, Long> samples = new TreeMap<>();
+    private Thread sampler;
+
+    Profiler(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    void enter(Stmt.Function function) {
+        int top = depth;
+        if (top == frames.length) frames = Arrays.copyOf(frames, top * 2);
+        frames[top] = function;
+        depth = top + 1;
+    }
+
+    void exit() {
+        depth--;
+    }
+
+    void start() {
+        sampler = new Thread(this::sampleUntilInterrupted, "lox-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    void stop() {
+        sampler.interrupt();
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Records the current stack, called by the sampler thread
+     */
+    void sample() {
+        int top = depth;
+        Stmt.Function[] stack = frames;
+
+        StringBuilder collapsed = new StringBuilder(ROOT_FRAME);
+        for (int i = 0; i < top && i < stack.length; i++) {
+            Stmt.Function function = stack[i];
+            if (function == null) break;
+            collapsed.append(';').append(function.name.getLexeme()).append(':').append(function.name.getLine());
+        }
+        samples.merge(collapsed.toString(), 1L, Long::sum);
+    }
+
+    /**
+     * Only valid once the profiler is stopped
+     */
+    void writeCollapsed(Writer out) throws IOException {
+        for (Map.Entry<String, Long> stack : samples.entrySet()) {
+            out.write(stack.getKey() + " " + stack.getValue() + "\n");
+        }
+        out.flush();
+    }
+
+    private void sampleUntilInterrupted() {
+        try {
+            while (true) {
+                Thread.sleep(intervalMillis);
+                sample();
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Parsed programs kept in a directory, so a script that didn't change is read back without scanning or parsing it.
+ *
+ * Entries are named after the SHA-256 of {@link #FORMAT_VERSION} and the source, and hold the program after
+ * constant folding as written by {@link AstWriter}. An entry that is missing or can't be read is a miss;
+ * failing to store one only means the next run parses the script again.
+ */
+class ProgramCache {
+    // bump whenever the AST, its encoding or the optimizations done before storing change
+    static final int FORMAT_VERSION = 2;
+    private static final int MAGIC = 0x4c4f5843;
+
+    private final Path directory;
+
+    ProgramCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return null if the source isn't cached
+     */
+    List<Stmt> load(byte[] source) {
+        Path entry = entry(source);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) return null;
+            return new AstReader(in, Files.size(entry)).read();
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            // e.g. truncated by a crash, it's overwritten after parsing
+            return null;
+        }
+    }
+
+    /**
+     * Writes to a temporary file first, so concurrent runs never read a partial entry
+     */
+    void store(byte[] source, List<Stmt> program) {
+        Path temporary = null;
+        try {
+            Path entry = entry(source);
+            Files.createDirectories(directory);
+            temporary = Files.createTempFile(directory, entry.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                new AstWriter(out).write(program);
+            }
+            Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            deleteQuietly(temporary);
+        }
+    }
+
+    private Path entry(byte[] source) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(FORMAT_VERSION).array());
+        digest.update(source);
+
+        StringBuilder name = new StringBuilder();
+        for (byte b : digest.digest()) {
+            name.append(String.format("%02x", b));
+        }
+        return directory.resolve(name.append(".loxc").toString());
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) return;
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // left behind, it never matches an entry name
+        }
+    }
+}
@@ -0,0 +1,366 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Static pass run between {@link Parser#parse()} and {@link Interpreter#interpret(List)}.
+ *
+ * Annotates every local variable access ({@code Expr.Variable}, {@code Expr.Assign}) with the number of
+ * scopes to hop ({@code depth}) and the index of the variable in its scope ({@code slot}),
+ * and every local declaration ({@code Stmt.Var}, {@code Stmt.Function}) with its {@code slot}.
+ * Scopes ({@code Stmt.Block}, {@code Stmt.Function}) get the {@code slotCount} to size their {@link SlotEnvironment}.
+ * Accesses that aren't resolved to any local scope are left with {@link #GLOBAL} depth and are looked up by name.
+ *
+ * Closures capture only the variables they reference: accesses to a local of an enclosing function get
+ * {@link #UPVALUE} depth and the index of the upvalue in {@code slot}, the function lists its {@link Capture}s,
+ * and scopes mark the slots that have to be shared with closures in {@code capturedSlots}.
+ *
+ * Reports static errors (e.g. reading a local variable in its own initializer) before anything is executed.
+ */
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final int GLOBAL = -1;
+    static final int UPVALUE = -2;
+
+    private final ErrorReporter reporter;
+    // top-level code, its blocks are scopes too
+    private FunctionScope function = new FunctionScope(null, FunctionType.NONE);
+
+    Resolver() {
+        this(new ErrorReporter(System.err));
+    }
+
+    Resolver(ErrorReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    void resolve(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            resolve(statement);
+        }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        resolve(stmt.statements);
+        Map<Symbol, Local> scope = endScope();
+        stmt.slotCount = scope.size();
+        stmt.capturedSlots = capturedSlots(scope);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        // the name is defined eagerly to let a function refer to itself recursively
+        stmt.slot = declare(stmt.name);
+        define(stmt.name);
+
+        resolveFunction(stmt, FunctionType.FUNCTION);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        if (stmt.elseBranch != null) resolve(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (function.type == FunctionType.NONE) {
+            reporter.error(stmt.keyword, "Cannot return from top-level code.");
+        }
+
+        if (stmt.value != null) resolve(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        // split into declare and define to catch `var a = a;` in a local scope
+        stmt.slot = declare(stmt.name);
+        if (stmt.initializer != null) {
+            resolve(stmt.initializer);
+        }
+        define(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+
+        Local local = resolveVariable(expr.name);
+        expr.depth = local.depth;
+        expr.slot = local.slot;
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        resolve(expr.callee);
+
+        for (Expr argument : expr.arguments) {
+            resolve(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitConditionalExpr(Expr.Conditional expr) {
+        resolve(expr.condition);
+        resolve(expr.caseTrue);
+        resolve(expr.caseFalse);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        Map<Symbol, Local> scope = function.scopes.peek();
+        if (scope != null) {
+            Local declared = scope.get(expr.name.getSymbol());
+            if (declared != null && !declared.defined) {
+                reporter.error(expr.name, "Cannot read local variable in its own initializer.");
+            }
+        }
+
+        Local local = resolveVariable(expr.name);
+        expr.depth = local.depth;
+        expr.slot = local.slot;
+        return null;
+    }
+
+    private void resolve(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void resolve(Expr expr) {
+        expr.accept(this);
+    }
+
+    /**
+     * Parameters and the body share a single scope, same as the environment created by {@link LoxFunction#call}
+     */
+    private void resolveFunction(Stmt.Function declaration, FunctionType type) {
+        // resolved once it's parsed
+        if (declaration.body instanceof LazyBody && !((LazyBody) declaration.body).isParsed()) return;
+
+        FunctionScope enclosing = function;
+        function = new FunctionScope(enclosing, type);
+
+        beginScope();
+        for (Token param : declaration.params) {
+            declare(param);
+            define(param);
+        }
+        resolve(declaration.body);
+        Map<Symbol, Local> scope = endScope();
+        declaration.slotCount = scope.size();
+        declaration.capturedSlots = capturedSlots(scope);
+        declaration.captures = function.captures;
+
+        function = enclosing;
+    }
+
+    private void beginScope() {
+        function.scopes.push(new HashMap<>());
+    }
+
+    private Map<Symbol, Local> endScope() {
+        return function.scopes.pop();
+    }
+
+    /**
+     * @return which slots of the scope are captured by closures, or {@code null} if none is
+     */
+    private static boolean[] capturedSlots(Map<Symbol, Local> scope) {
+        boolean[] captured = null;
+        for (Local local : scope.values()) {
+            if (!local.captured) continue;
+            if (captured == null) captured = new boolean[scope.size()];
+            captured[local.slot] = true;
+        }
+        return captured;
+    }
+
+    /**
+     * Adds the variable to the innermost scope and returns its slot, or {@code -1} for globals
+     */
+    private int declare(Token name) {
+        if (function.scopes.isEmpty()) return -1;
+
+        Map<Symbol, Local> scope = function.scopes.peek();
+        if (scope.containsKey(name.getSymbol())) {
+            reporter.error(name, "Variable with this name already declared in this scope.");
+            return scope.get(name.getSymbol()).slot;
+        }
+
+        int slot = scope.size();
+        scope.put(name.getSymbol(), new Local(slot));
+        return slot;
+    }
+
+    private void define(Token name) {
+        if (function.scopes.isEmpty()) return;
+        function.scopes.peek().get(name.getSymbol()).defined = true;
+    }
+
+    /**
+     * Looks the variable up in the scopes of the current function, then in the enclosing functions.
+     * Returns {@link #GLOBAL} depth if it isn't declared in any of them.
+     */
+    private Local resolveVariable(Token name) {
+        Local local = resolveLocal(function, name);
+        if (local != null) return local;
+
+        int upvalue = resolveUpvalue(function, name);
+        if (upvalue != -1) return new Local(upvalue, UPVALUE);
+
+        return new Local(-1, GLOBAL);
+    }
+
+    /**
+     * Walks the scopes of the function from the innermost outwards.
+     * Returns {@code null} if the variable isn't declared in any of them.
+     */
+    private static Local resolveLocal(FunctionScope function, Token name) {
+        int depth = 0;
+        for (Iterator<Map<Symbol, Local>> it = function.scopes.iterator(); it.hasNext(); depth++) {
+            Local local = it.next().get(name.getSymbol());
+            if (local != null) {
+                return new Local(local.slot, depth);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Captures the variable from the enclosing functions, adding it to the captures of every function in between.
+     * Returns the index of the upvalue in the function, or {@code -1} if the variable is a global.
+     */
+    private static int resolveUpvalue(FunctionScope function, Token name) {
+        FunctionScope enclosing = function.enclosing;
+        if (enclosing == null) return -1;
+
+        int depth = 0;
+        for (Iterator<Map<Symbol, Local>> it = enclosing.scopes.iterator(); it.hasNext(); depth++) {
+            Local local = it.next().get(name.getSymbol());
+            if (local != null) {
+                local.captured = true;
+                return function.capture(depth, local.slot);
+            }
+        }
+
+        int upvalue = resolveUpvalue(enclosing, name);
+        if (upvalue == -1) return -1;
+        return function.capture(UPVALUE, upvalue);
+    }
+
+    private enum FunctionType {
+        NONE,
+        FUNCTION
+    }
+
+    private static class Local {
+        final int slot;
+        final int depth;
+        boolean defined = false;
+        boolean captured = false;
+
+        Local(int slot) {
+            this(slot, 0);
+        }
+
+        Local(int slot, int depth) {
+            this.slot = slot;
+            this.depth = depth;
+        }
+    }
+
+    private static class FunctionScope {
+        final FunctionScope enclosing;
+        final FunctionType type;
+        final Deque<Map<Symbol, Local>> scopes = new ArrayDeque<>();
+        final List<Capture> captures = new ArrayList<>();
+
+        FunctionScope(FunctionScope enclosing, FunctionType type) {
+            this.enclosing = enclosing;
+            this.type = type;
+        }
+
+        /**
+         * @return index of the upvalue, shared by all accesses to the same variable
+         */
+        int capture(int depth, int index) {
+            for (int i = 0; i < captures.size(); i++) {
+                Capture capture = captures.get(i);
+                if (capture.depth == depth && capture.index == index) return i;
+            }
+            captures.add(new Capture(depth, index));
+            return captures.size() - 1;
+        }
+    }
+}
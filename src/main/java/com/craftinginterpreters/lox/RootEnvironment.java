@@ -1,55 +1,65 @@
 package com.craftinginterpreters.lox;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 public class RootEnvironment implements Environment {
-    private final Map<String, Object> values;
+    private final Map<Symbol, Object> values;
+    // bumped whenever a variable holding a callable is redefined or assigned
+    private int callablesVersion = 0;
 
     public RootEnvironment() {
         this.values = new HashMap<>();
-        this.define("clock", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double) System.currentTimeMillis() / 1000.0;
-            }
-
-            @Override
-            public String toString() {
-                return "<native fn clock>";
-            }
-        });
+        this.define(Symbol.of("clock"), Natives.CLOCK);
     }
 
     @Override
-    public void define(String name, Object value) {
-        values.put(name, value);
+    public void define(Symbol name, Object value) {
+        Object previous = values.put(name, value);
+        if (previous instanceof LoxCallable) callablesVersion++;
     }
 
     @Override
     public Object get(Token name) {
-        String varName = name.getLexeme();
-        if (values.containsKey(varName)) {
-            return values.get(varName);
+        Object value = values.get(name.getSymbol());
+        if (value != null || values.containsKey(name.getSymbol())) {
+            return value;
         }
 
-        throw new LoxRuntimeError(name, "Undefinded variable " + varName);
+        throw new LoxRuntimeError(name, "Undefinded variable " + name.getLexeme());
     }
 
     @Override
     public void assign(Token name, Object value) {
-        String varName = name.getLexeme();
-        if (values.containsKey(varName)) {
-            values.put(varName, value);
+        Symbol symbol = name.getSymbol();
+        if (values.containsKey(symbol)) {
+            Object previous = values.put(symbol, value);
+            if (previous instanceof LoxCallable) callablesVersion++;
             return;
         }
 
-        throw new LoxRuntimeError(name, "Undefined variable " + varName);
+        throw new LoxRuntimeError(name, "Undefined variable " + name.getLexeme());
+    }
+
+    /**
+     * Changes whenever a global that held a callable gets another value, used to validate {@link InlineCache}s
+     */
+    int callablesVersion() {
+        return callablesVersion;
+    }
+
+    @Override
+    public void define(int slot, Object value) {
+        throw new IllegalStateException("Global variables are defined by name");
+    }
+
+    @Override
+    public Object get(int depth, int slot) {
+        throw new IllegalStateException("Global variables are looked up by name");
+    }
+
+    @Override
+    public void assign(int depth, int slot, Object value) {
+        throw new IllegalStateException("Global variables are assigned by name");
     }
 }
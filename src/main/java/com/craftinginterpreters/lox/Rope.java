@@ -0,0 +1,112 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A Lox string built by concatenation: a node joining two parts, each a String or another Rope. Building a string
+ * piece by piece in a loop only adds nodes, the characters are copied once, when the string is flattened because it's
+ * printed or compared. The flat String is kept and the parts are dropped.
+ *
+ * Short results are built as Strings right away, see {@link #concat}. Lox code can't tell the difference, everything
+ * that reads a string goes through {@link #toString()}.
+ */
+final class Rope implements CharSequence {
+    // a result shorter than this is copied into a String, a node isn't worth it
+    static final int MIN_LENGTH = 64;
+    // longest string a JVM can make, a little less than Integer.MAX_VALUE on most
+    private static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+
+    private CharSequence left;
+    private CharSequence right;
+    private final int length;
+    private String flat;
+    // the flat String is counted before it's made, at the line the rope was built
+    private final HeapAccount heap;
+    private final int line;
+
+    private Rope(CharSequence left, CharSequence right, int length, HeapAccount heap, int line) {
+        this.left = left;
+        this.right = right;
+        this.length = length;
+        this.heap = heap;
+        this.line = line;
+    }
+
+    /**
+     * @param left  a String or a Rope
+     * @param right a String or a Rope
+     * @param heap  counts the result, a String right away, a Rope's String once it's flattened
+     * @param line  where the concatenation is, for errors
+     * @return a String if the result is short, a Rope otherwise
+     */
+    static CharSequence concat(CharSequence left, CharSequence right, HeapAccount heap, int line) {
+        long length = (long) left.length() + right.length();
+        if (length > MAX_LENGTH) throw new LoxRuntimeError(line, "String is too long.");
+
+        if (length < MIN_LENGTH) {
+            return heap.allocate(left.toString() + right, HeapAccount.stringBytes((int) length), line);
+        }
+        return heap.allocate(new Rope(left, right, (int) length, heap, line), HeapAccount.ropeBytes(), line);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) flatten();
+        return flat;
+    }
+
+    /**
+     * Fills the characters from the end, right parts first, so a rope built by appending, nested to the left,
+     * needs no more than a couple of pending parts however long it is
+     */
+    private void flatten() {
+        long bytes = HeapAccount.stringBytes(length);
+        heap.allocate(bytes, line);
+        char[] chars = new char[length];
+        int end = length;
+        Deque<CharSequence> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            CharSequence part = pending.pop();
+            if (part instanceof Rope && ((Rope) part).flat == null) {
+                Rope rope = (Rope) part;
+                pending.push(rope.left);
+                pending.push(rope.right);
+            } else {
+                String text = part.toString();
+                end -= text.length();
+                text.getChars(0, text.length(), chars, end);
+            }
+        }
+
+        flat = heap.counted(new String(chars), bytes);
+        left = null;
+        right = null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Rope && toString().equals(o.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
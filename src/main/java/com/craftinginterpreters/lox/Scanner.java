@@ -2,56 +2,105 @@ package com.craftinginterpreters.lox;
 
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 
-class Scanner {
-    private static final Map<String, TokenType> keywords;
-
-    static {
-        keywords = new HashMap<>();
-        keywords.put("and",    AND);
-        keywords.put("class",  CLASS);
-        keywords.put("else",   ELSE);
-        keywords.put("false",  FALSE);
-        keywords.put("for",    FOR);
-        keywords.put("fun",    FUN);
-        keywords.put("if",     IF);
-        keywords.put("nil",    NIL);
-        keywords.put("or",     OR);
-        keywords.put("print",  PRINT);
-        keywords.put("return", RETURN);
-        keywords.put("super",  SUPER);
-        keywords.put("this",   THIS);
-        keywords.put("true",   TRUE);
-        keywords.put("var",    VAR);
-        keywords.put("while",  WHILE);
-        keywords.put("break",  BREAK);
-    }
-
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+/**
+ * Scans tokens on demand as a {@link TokenSource}, or all at once with {@link #scanTokens()}
+ * or, more compactly, {@link #scanBuffer()}.
+ *
+ * Reading from a {@link Reader}, only the current lexeme and a couple of characters of lookahead are buffered,
+ * so scanning a huge file doesn't need memory proportional to its size.
+ */
+class Scanner implements TokenSource {
+    private static final int BUFFER_SIZE = 8192;
+    // any integer of up to 15 digits is below 2^53
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    private final ErrorReporter reporter;
+    // null if the whole source is in the buffer
+    private final Reader reader;
+    // characters of the source from the start of the current lexeme on, up to limit
+    private char[] buffer;
+    private int limit;
     private int start = 0;
     private int current = 0;
     private int line = 1;
+    // set by scanToken() unless it skipped whitespace or a comment, the lexeme is between start and current
+    private TokenType scannedType;
+    private Object scannedLiteral;
 
     Scanner(String source) {
-        this.source = source;
+        this(source, new ErrorReporter(System.err));
+    }
+
+    Scanner(String source, ErrorReporter reporter) {
+        this.reporter = reporter;
+        this.reader = null;
+        this.buffer = source.toCharArray();
+        this.limit = buffer.length;
+    }
+
+    Scanner(Reader reader) {
+        this(reader, new ErrorReporter(System.err));
+    }
+
+    Scanner(Reader reader, ErrorReporter reporter) {
+        this.reporter = reporter;
+        this.reader = reader;
+        this.buffer = new char[BUFFER_SIZE];
+        this.limit = 0;
     }
 
     List<Token> scanTokens() {
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        do {
+            token = nextToken();
+            tokens.add(token);
+        } while (token.getType() != EOF);
+        return tokens;
+    }
+
+    /**
+     * Scans the whole source without creating a {@link Token} or lexeme per token
+     */
+    TokenBuffer scanBuffer() {
+        if (reader != null) throw new IllegalStateException("Only a source in memory can be scanned to a TokenBuffer");
+
+        TokenBuffer tokens = new TokenBuffer(buffer);
+        while (scanNext()) {
+            tokens.add(scannedType, start, current - start, line, scannedLiteral);
+        }
+        tokens.add(EOF, current, 0, line, null);
+        return tokens;
+    }
+
+    @Override
+    public Token nextToken() {
+        if (!scanNext()) return new Token(EOF, "", null, line);
+        return new Token(scannedType, lexeme(), scannedLiteral, line);
+    }
+
+    /**
+     * @return {@code false} at the end of the source, otherwise the scanned token is set
+     */
+    private boolean scanNext() {
+        scannedType = null;
+        scannedLiteral = null;
         while (!isAtEnd()) {
             // We are at the beginning of the next lexeme.
             start = current;
             scanToken();
+            if (scannedType != null) return true;
         }
-
-        tokens.add(new Token(EOF, "", null, line));
-        return tokens;
+        return false;
     }
 
     private void scanToken() {
@@ -113,7 +162,7 @@ class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character.");
+                    reporter.error(line, "Unexpected character.");
                 }
                 break;
         }
@@ -127,7 +176,7 @@ class Scanner {
 
         // Unterminated string.
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            reporter.error(line, "Unterminated string.");
             return;
         }
 
@@ -135,7 +184,7 @@ class Scanner {
         advance();
 
         // Trim the surrounding quotes.
-        String value = source.substring(start + 1, current - 1);
+        String value = new String(buffer, start + 1, current - start - 2);
         addToken(STRING, value);
     }
 
@@ -150,10 +199,22 @@ class Scanner {
             while (isDigit(peek())) advance();
         }
 
-        addToken(
-                NUMBER,
-                Double.parseDouble(source.substring(start, current))
-        );
+        addToken(NUMBER, numberValue());
+    }
+
+    /**
+     * Integers short enough to be exact as a double are computed from the digits without creating a String
+     */
+    private double numberValue() {
+        if (current - start > MAX_EXACT_DIGITS) return Double.parseDouble(lexeme());
+
+        long value = 0;
+        for (int i = start; i < current; i++) {
+            char c = buffer[i];
+            if (c == '.') return Double.parseDouble(lexeme());
+            value = value * 10 + (c - '0');
+        }
+        return value;
     }
 
     private boolean isDigit(char c) {
@@ -163,12 +224,53 @@ class Scanner {
     private void identifier() {
         while (isAlphaNumeric(peek())) advance();
 
-        // See if the identifier is a reserved word.
-        String text = source.substring(start, current);
+        addToken(identifierType());
+    }
+
+    /**
+     * Checks if the identifier is a reserved word without creating a String of it
+     */
+    private TokenType identifierType() {
+        switch (buffer[start]) {
+            case 'a': return keyword("and", AND);
+            case 'b': return keyword("break", BREAK);
+            case 'c': return keyword("class", CLASS);
+            case 'e': return keyword("else", ELSE);
+            case 'f':
+                if (current - start > 1) {
+                    switch (buffer[start + 1]) {
+                        case 'a': return keyword("false", FALSE);
+                        case 'o': return keyword("for", FOR);
+                        case 'u': return keyword("fun", FUN);
+                    }
+                }
+                break;
+            case 'i': return keyword("if", IF);
+            case 'n': return keyword("nil", NIL);
+            case 'o': return keyword("or", OR);
+            case 'p': return keyword("print", PRINT);
+            case 'r': return keyword("return", RETURN);
+            case 's': return keyword("super", SUPER);
+            case 't':
+                if (current - start > 1) {
+                    switch (buffer[start + 1]) {
+                        case 'h': return keyword("this", THIS);
+                        case 'r': return keyword("true", TRUE);
+                    }
+                }
+                break;
+            case 'v': return keyword("var", VAR);
+            case 'w': return keyword("while", WHILE);
+        }
+        return IDENTIFIER;
+    }
 
-        TokenType type = keywords.get(text);
-        if (type == null) type = IDENTIFIER;
-        addToken(type);
+    private TokenType keyword(String keyword, TokenType type) {
+        if (current - start != keyword.length()) return IDENTIFIER;
+        for (int i = 0; i < keyword.length(); i++) {
+            if (buffer[start + i] != keyword.charAt(i)) return IDENTIFIER;
+        }
+        return type;
     }
 
     private boolean isAlpha(char c) {
@@ -185,8 +287,8 @@ class Scanner {
      * Returns the next char (at {@code this.current + 1}) without advancing
      */
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
-        return source.charAt(current + 1);
+        if (!fill(current + 2)) return '\0';
+        return buffer[current + 1];
     }
 
     /**
@@ -194,7 +296,7 @@ class Scanner {
      */
     private char peek() {
         if (isAtEnd()) return '\0';
-        return source.charAt(current);
+        return buffer[current];
     }
 
     /**
@@ -203,7 +305,7 @@ class Scanner {
      */
     private boolean match(char expected) {
         if (isAtEnd()) return false;
-        if (source.charAt(current) != expected) return false;
+        if (buffer[current] != expected) return false;
 
         current++;
         return true;
@@ -213,8 +315,9 @@ class Scanner {
      * Returns the char at {@code this.current} and advances {@code this.current}
      */
     private char advance() {
+        if (isAtEnd()) return '\0';
         current++;
-        return source.charAt(current - 1);
+        return buffer[current - 1];
     }
 
     private void addToken(TokenType type) {
@@ -222,14 +325,52 @@ class Scanner {
     }
 
     /**
-     * Adds a new Token, optionally with a literal.
+     * Marks the current lexeme as a token, optionally with a literal.
      */
     private void addToken(TokenType type, @Nullable Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        scannedType = type;
+        scannedLiteral = literal;
+    }
+
+    private String lexeme() {
+        return new String(buffer, start, current - start);
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return !fill(current + 1);
+    }
+
+    /**
+     * Reads until the buffer holds the characters up to {@code end} (exclusive), unless the source ends earlier.
+     * Makes room by dropping the characters before the current lexeme, so indexes into the buffer may change.
+     *
+     * @return whether the characters are there
+     */
+    private boolean fill(int end) {
+        if (end <= limit) return true;
+        if (reader == null) return false;
+
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, limit - start);
+            limit -= start;
+            current -= start;
+            end -= start;
+            start = 0;
+        }
+        if (end > buffer.length) {
+            // a lexeme longer than the buffer, e.g. a long string
+            buffer = Arrays.copyOf(buffer, Math.max(end, buffer.length * 2));
+        }
+
+        try {
+            while (limit < end) {
+                int read = reader.read(buffer, limit, buffer.length - limit);
+                if (read == -1) return false;
+                limit += read;
+            }
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 }
@@ -0,0 +1,37 @@
+package com.craftinginterpreters.lox;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A parsed, folded and resolved program, ready to run.
+ *
+ * The tree isn't changed once it's compiled apart from hints the interpreter records on its nodes (inline caches,
+ * operand specializations). Those are validated before use, so a lost or stale hint only costs a slow path,
+ * and one Script can be run by any number of {@link LoxContext}s on different threads at the same time.
+ */
+public final class Script {
+    final List<Stmt> statements;
+
+    private Script(List<Stmt> statements) {
+        this.statements = Collections.unmodifiableList(statements);
+    }
+
+    /**
+     * @return null if errors were reported for this source, errors the reporter already had don't count
+     */
+    @Nullable
+    public static Script compile(String source, ErrorReporter reporter) {
+        int errorsBefore = reporter.errorCount();
+        List<Stmt> statements = new Parser(new Scanner(source, reporter).scanBuffer().tokens(), reporter).parse();
+        if (reporter.errorCount() != errorsBefore) return null;
+
+        statements = new ConstantFolder().fold(statements);
+        new Resolver(reporter).resolve(statements);
+        if (reporter.errorCount() != errorsBefore) return null;
+
+        return new Script(statements);
+    }
+}
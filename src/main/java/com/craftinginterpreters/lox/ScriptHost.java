@@ -0,0 +1,249 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many short scripts concurrently, each in a fresh {@link LoxContext} with its output captured.
+ *
+ * Every script gets its own thread, a virtual thread when the JVM has them (21 and later), so a blocked or slow
+ * script doesn't hold up the others. At most {@code maxRunning} scripts run at once, {@link #submit} blocks until
+ * one finishes. A script that runs longer than the timeout completes as {@link Status#TIMEOUT} and its {@link Fuel} is
+ * cancelled, so it stops at its next loop iteration or call. Compiled scripts are kept in a shared cache keyed by
+ * their source, so a script submitted again isn't parsed again.
+ */
+final class ScriptHost implements AutoCloseable {
+    // stack of the fallback platform threads, deep recursion in a script recurses in the interpreter
+    private static final long STACK_SIZE = 16 * 1024 * 1024;
+
+    enum Status {
+        OK, ERROR, TIMEOUT
+    }
+
+    static final class Result {
+        final Status status;
+        final String output;
+        final String errors;
+        // see HeapAccount, zero if the script didn't finish
+        final long peakBytes;
+        final long totalBytes;
+
+        Result(Status status, String output, String errors) {
+            this(status, output, errors, 0, 0);
+        }
+
+        Result(Status status, String output, String errors, long peakBytes, long totalBytes) {
+            this.status = status;
+            this.output = output;
+            this.errors = errors;
+            this.peakBytes = peakBytes;
+            this.totalBytes = totalBytes;
+        }
+    }
+
+    private final ExecutorService workers = newWorkers();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "lox-host-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Semaphore running;
+    private final long timeoutMillis;
+    // ticks each script may spend
+    private final long fuel;
+    // bytes each script may hold, see HeapAccount
+    private final long heapLimit;
+    private final Map<String, Script> scripts;
+
+    ScriptHost(int maxRunning, long timeoutMillis, int cacheSize) {
+        this(maxRunning, timeoutMillis, Long.MAX_VALUE, Long.MAX_VALUE, cacheSize);
+    }
+
+    ScriptHost(int maxRunning, long timeoutMillis, long fuel, long heapLimit, int cacheSize) {
+        this.running = new Semaphore(maxRunning);
+        this.timeoutMillis = timeoutMillis;
+        this.fuel = fuel;
+        this.heapLimit = heapLimit;
+        this.scripts = new LinkedHashMap<String, Script>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Script> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Waits until fewer than {@code maxRunning} scripts run and starts the script
+     */
+    CompletableFuture<Result> submit(String source) throws InterruptedException {
+        running.acquire();
+        CompletableFuture<Result> result = new CompletableFuture<>();
+        Fuel scriptFuel = new Fuel(fuel);
+        try {
+            workers.execute(() -> {
+                try {
+                    if (!result.isDone()) result.complete(run(source, scriptFuel));
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    // a timed out script keeps its permit until it really stops
+                    running.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            running.release();
+            throw e;
+        }
+
+        ScheduledFuture<?> timeout = timer.schedule(() -> {
+            String message = "Script timed out after " + timeoutMillis + " ms." + System.lineSeparator();
+            if (result.complete(new Result(Status.TIMEOUT, "", message))) scriptFuel.cancel();
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        result.whenComplete((value, error) -> timeout.cancel(false));
+        return result;
+    }
+
+    private Result run(String source, Fuel fuel) {
+        StringBuilder output = new StringBuilder();
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        LoxContext context = new LoxContext(OutputSink.of(output), new PrintStream(errors, false, StandardCharsets.UTF_8));
+
+        Script script = cached(source, context);
+        if (script == null) return new Result(Status.ERROR, output.toString(), errors.toString(StandardCharsets.UTF_8));
+
+        LoxContext.Result run = context.run(script, fuel, new HeapAccount(heapLimit));
+        return new Result(run.succeeded() ? Status.OK : Status.ERROR,
+                output.toString(), errors.toString(StandardCharsets.UTF_8),
+                run.peakBytes(), run.totalBytes());
+    }
+
+    /**
+     * Scripts with errors aren't cached, they're compiled again to report the errors to the new context
+     */
+    private Script cached(String source, LoxContext context) {
+        Script script;
+        synchronized (scripts) {
+            script = scripts.get(source);
+        }
+        if (script != null) return script;
+
+        script = context.compile(source);
+        if (script != null) {
+            synchronized (scripts) {
+                scripts.put(source, script);
+            }
+        }
+        return script;
+    }
+
+    /**
+     * Reads requests from {@code in} and writes a response for each, in the order the scripts finish, until the end
+     * of the input. A request is a header line {@code <id> <length>} and the UTF-8 source of {@code <length>} bytes.
+     * A response is the header line
+     * {@code <id> <ok|error|timeout> <output length> <error length> <peak bytes> <total bytes>}, the printed output and
+     * the error messages.
+     */
+    void serve(InputStream in, OutputStream out) throws IOException, InterruptedException {
+        DataInputStream requests = new DataInputStream(in);
+        AtomicInteger pending = new AtomicInteger();
+        Object lock = new Object();
+        for (;;) {
+            String header = readLine(requests);
+            if (header == null) break;
+            if (header.isBlank()) continue;
+
+            String[] fields = header.trim().split(" ");
+            if (fields.length != 2 || !fields[1].matches("[0-9]{1,9}")) {
+                throw new IOException("Malformed request header '" + header + "'");
+            }
+            String id = fields[0];
+            byte[] source = new byte[Integer.parseInt(fields[1])];
+            requests.readFully(source);
+
+            pending.incrementAndGet();
+            submit(new String(source, StandardCharsets.UTF_8)).whenComplete((result, error) -> {
+                Result response = error == null ? result : new Result(Status.ERROR, "", error + System.lineSeparator());
+                synchronized (lock) {
+                    try {
+                        writeResponse(out, id, response);
+                    } catch (IOException e) {
+                        System.err.println("Couldn't write response " + id + ": " + e.getMessage());
+                    }
+                    pending.decrementAndGet();
+                    lock.notifyAll();
+                }
+            });
+        }
+
+        synchronized (lock) {
+            while (pending.get() > 0) lock.wait();
+        }
+    }
+
+    private static void writeResponse(OutputStream out, String id, Result result) throws IOException {
+        byte[] output = result.output.getBytes(StandardCharsets.UTF_8);
+        byte[] errors = result.errors.getBytes(StandardCharsets.UTF_8);
+        String header = id + " " + result.status.name().toLowerCase() + " " + output.length + " " + errors.length
+                + " " + result.peakBytes + " " + result.totalBytes + "\n";
+        out.write(header.getBytes(StandardCharsets.UTF_8));
+        out.write(output);
+        out.write(errors);
+        out.flush();
+    }
+
+    /**
+     * @return null at the end of the input
+     */
+    private static String readLine(DataInputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        for (;;) {
+            int b = in.read();
+            if (b == -1) {
+                if (line.size() == 0) return null;
+                throw new EOFException("Request header ends without a newline");
+            }
+            if (b == '\n') return line.toString(StandardCharsets.UTF_8);
+            line.write(b);
+        }
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    /**
+     * A virtual thread per script if the JVM has them, looked up reflectively to still run on older JVMs
+     */
+    private static ExecutorService newWorkers() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(null, runnable, "lox-host-" + count.incrementAndGet(), STACK_SIZE);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Local scope that keeps its variables in an array sized by the {@link Resolver}.
+ * Locals are never looked up by name, so name based access goes straight to the enclosing environment.
+ *
+ * Numbers stored with {@link #setNumber(int, double)} are kept unboxed until somebody reads them as an Object.
+ * Slots captured by closures hold a {@link Cell} shared with the closures' upvalues instead of the value.
+ * The cells are created with the scope, a scope instance declares each of its variables only once.
+ */
+class SlotEnvironment implements Environment {
+    // marks a slot whose value is in numbers
+    private static final Object NUMBER = new Object();
+
+    private final Environment enclosingEnvironment;
+    private final Object[] slots;
+    // allocated on the first unboxed store, most scopes never need it
+    private double[] numbers;
+
+    SlotEnvironment(Environment enclosingEnvironment, int slotCount, boolean[] capturedSlots) {
+        this.enclosingEnvironment = enclosingEnvironment;
+        this.slots = new Object[slotCount];
+        if (capturedSlots != null) {
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (capturedSlots[slot]) slots[slot] = new Cell(null);
+            }
+        }
+    }
+
+    @Override
+    public void define(Symbol name, Object value) {
+        throw new IllegalStateException("Local variable " + name + " must be defined by slot");
+    }
+
+    @Override
+    public Object get(Token name) {
+        return enclosingEnvironment.get(name);
+    }
+
+    @Override
+    public void assign(Token name, Object value) {
+        enclosingEnvironment.assign(name, value);
+    }
+
+    @Override
+    public void define(int slot, Object value) {
+        write(slot, value);
+    }
+
+    @Override
+    public Object get(int depth, int slot) {
+        return ancestor(depth).read(slot);
+    }
+
+    @Override
+    public void assign(int depth, int slot, Object value) {
+        ancestor(depth).write(slot, value);
+    }
+
+    boolean holdsNumber(int slot) {
+        Object value = slots[slot];
+        if (value instanceof Cell) value = ((Cell) value).value;
+        return value == NUMBER || value instanceof Double;
+    }
+
+    /**
+     * Only valid if {@link #holdsNumber(int)}
+     */
+    double getNumber(int slot) {
+        Object value = slots[slot];
+        if (value == NUMBER) return numbers[slot];
+        if (value instanceof Cell) value = ((Cell) value).value;
+        return (double) value;
+    }
+
+    void setNumber(int slot, double value) {
+        if (slots[slot] instanceof Cell) {
+            ((Cell) slots[slot]).value = value;
+            return;
+        }
+        if (numbers == null) numbers = new double[slots.length];
+        numbers[slot] = value;
+        slots[slot] = NUMBER;
+    }
+
+    SlotEnvironment ancestor(int depth) {
+        SlotEnvironment environment = this;
+        for (int i = 0; i < depth; i++) {
+            environment = (SlotEnvironment) environment.enclosingEnvironment;
+        }
+        return environment;
+    }
+
+    /**
+     * Only valid for captured slots
+     */
+    Cell cell(int slot) {
+        return (Cell) slots[slot];
+    }
+
+    private Object read(int slot) {
+        Object value = slots[slot];
+        if (value == NUMBER) {
+            // box once, the following reads reuse the box
+            value = numbers[slot];
+            slots[slot] = value;
+        } else if (value instanceof Cell) {
+            value = ((Cell) value).value;
+        }
+        return value;
+    }
+
+    private void write(int slot, Object value) {
+        Object current = slots[slot];
+        if (current instanceof Cell) {
+            ((Cell) current).value = value;
+        } else {
+            slots[slot] = value;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Operand types an {@link Expr.Binary} has seen so far, recorded by the {@link Interpreter} on its first execution.
+ *
+ * A specialized node only checks that its operands still have the expected types (the guard) and takes the direct path.
+ * A failed guard rewrites the node to {@link #GENERIC} for good, so a node changes its state at most twice.
+ *
+ * Only {@code +}, {@code ==} and {@code !=} accept operands of different types,
+ * the other operators always take the number path.
+ */
+enum Specialization {
+    UNINITIALIZED,
+    NUMBER,
+    STRING,
+    GENERIC
+}
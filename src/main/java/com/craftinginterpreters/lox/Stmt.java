@@ -29,6 +29,8 @@ abstract class Stmt {
     }
 
     final List<Stmt> statements;
+    @EqualsAndHashCode.Exclude int slotCount = 0;
+    @EqualsAndHashCode.Exclude boolean[] capturedSlots = null;
   }
   @EqualsAndHashCode(callSuper = false)
   static class Expression extends Stmt {
@@ -57,6 +59,10 @@ abstract class Stmt {
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
+    @EqualsAndHashCode.Exclude int slot = -1;
+    @EqualsAndHashCode.Exclude int slotCount = 0;
+    @EqualsAndHashCode.Exclude boolean[] capturedSlots = null;
+    @EqualsAndHashCode.Exclude List<Capture> captures = List.of();
   }
   @EqualsAndHashCode(callSuper = false)
   static class If extends Stmt {
@@ -102,7 +108,8 @@ abstract class Stmt {
   }
   @EqualsAndHashCode(callSuper = false)
   static class While extends Stmt {
-    While(Expr condition, Stmt body) {
+    While(Token keyword, Expr condition, Stmt body) {
+      this.keyword = keyword;
       this.condition = condition;
       this.body = body;
     }
@@ -111,6 +118,7 @@ abstract class Stmt {
       return visitor.visitWhileStmt(this);
     }
 
+    final Token keyword;
     final Expr condition;
     final Stmt body;
   }
@@ -127,6 +135,7 @@ abstract class Stmt {
 
     final Token name;
     final Expr initializer;
+    @EqualsAndHashCode.Exclude int slot = -1;
   }
   @EqualsAndHashCode(callSuper = false)
   static class Break extends Stmt {
@@ -0,0 +1,75 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An identifier, interned when its token is scanned. Equal names are the same Symbol, so maps keyed by symbols
+ * compare identities and use the hash computed once, instead of rehashing and comparing lexemes on every lookup.
+ *
+ * Symbols are interned weakly, a name no token, tree or environment refers to anymore is dropped from the table,
+ * so a long-running host doesn't keep every name any script ever used. A Symbol made again for the name can't be
+ * told apart from the dropped one, nothing holds the dropped one to compare it with.
+ */
+final class Symbol {
+    // shared by every scan, a name read in one REPL line must be the same symbol in the next
+    private static final ConcurrentMap<String, Entry> symbols = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Symbol> collected = new ReferenceQueue<>();
+
+    private final String name;
+    private final int hash;
+
+    private Symbol(String name) {
+        this.name = name;
+        this.hash = name.hashCode();
+    }
+
+    static Symbol of(String name) {
+        expunge();
+        Entry entry = symbols.get(name);
+        Symbol symbol = entry == null ? null : entry.get();
+        if (symbol != null) return symbol;
+
+        Symbol created = new Symbol(name);
+        for (;;) {
+            entry = symbols.compute(name, (key, current) ->
+                    current != null && current.get() != null ? current : new Entry(created, collected));
+            symbol = entry.get();
+            // null if the symbol already there was collected since
+            if (symbol != null) return symbol;
+        }
+    }
+
+    private static void expunge() {
+        Entry entry;
+        while ((entry = (Entry) collected.poll()) != null) {
+            symbols.remove(entry.name, entry);
+        }
+    }
+
+    String name() {
+        return name;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private static final class Entry extends WeakReference<Symbol> {
+        // the key of the entry, removed once the symbol is collected
+        final String name;
+
+        Entry(Symbol symbol, ReferenceQueue<Symbol> queue) {
+            super(symbol, queue);
+            this.name = symbol.name;
+        }
+    }
+}
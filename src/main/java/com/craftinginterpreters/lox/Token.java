@@ -9,12 +9,15 @@ class Token {
     private final String lexeme;
     private final Object literal;
     private final int line;
+    // only identifiers have one
+    private final Symbol symbol;
 
     Token(TokenType type, String lexeme, @Nullable Object literal, int line) {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.symbol = type == TokenType.IDENTIFIER ? Symbol.of(lexeme) : null;
     }
 
     TokenType getType() {
@@ -25,6 +28,10 @@ class Token {
         return lexeme;
     }
 
+    Symbol getSymbol() {
+        return symbol;
+    }
+
     public Object getLiteral() {
         return literal;
     }
@@ -0,0 +1,199 @@
+package com.craftinginterpreters.lox;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tokens of a source held in memory, stored as parallel {@code int} columns instead of {@link Token} objects.
+ * The columns are allocated in chunks of {@link #CHUNK_SIZE} tokens, so they are never copied as the buffer grows.
+ *
+ * Lexemes are only copied out of the source when asked for. Apart from strings and numbers, equal lexemes are
+ * interned so every {@code print} or use of the same identifier shares one String.
+ */
+final class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final int NO_LITERAL = -1;
+
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    // column offsets inside a chunk
+    private static final int TYPE = 0;
+    private static final int START = CHUNK_SIZE;
+    private static final int LENGTH = 2 * CHUNK_SIZE;
+    private static final int LINE = 3 * CHUNK_SIZE;
+    private static final int LITERAL = 4 * CHUNK_SIZE;
+    private static final int COLUMNS = 5;
+
+    private final char[] source;
+    private int size = 0;
+    private int[][] chunks = new int[16][];
+    private final List<Object> literals = new ArrayList<>();
+
+    // open addressing, the capacity is a power of two
+    private String[] interned = new String[64];
+    private int internedCount = 0;
+
+    TokenBuffer(char[] source) {
+        this.source = source;
+    }
+
+    void add(TokenType type, int start, int length, int line, @Nullable Object literal) {
+        int chunk = size >>> CHUNK_BITS;
+        int offset = size & (CHUNK_SIZE - 1);
+        if (offset == 0) {
+            if (chunk == chunks.length) chunks = Arrays.copyOf(chunks, chunk * 2);
+            chunks[chunk] = new int[COLUMNS * CHUNK_SIZE];
+        }
+
+        int[] columns = chunks[chunk];
+        columns[TYPE + offset] = type.ordinal();
+        columns[START + offset] = start;
+        columns[LENGTH + offset] = length;
+        columns[LINE + offset] = line;
+        if (literal == null) {
+            columns[LITERAL + offset] = NO_LITERAL;
+        } else {
+            columns[LITERAL + offset] = literals.size();
+            literals.add(literal);
+        }
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    TokenType type(int index) {
+        return TYPES[column(TYPE, index)];
+    }
+
+    int line(int index) {
+        return column(LINE, index);
+    }
+
+    @Nullable
+    Object literal(int index) {
+        int literal = column(LITERAL, index);
+        return literal == NO_LITERAL ? null : literals.get(literal);
+    }
+
+    String lexeme(int index) {
+        TokenType type = type(index);
+        int start = column(START, index);
+        int length = column(LENGTH, index);
+        if (type == TokenType.STRING || type == TokenType.NUMBER) {
+            return new String(source, start, length);
+        }
+        return intern(start, length);
+    }
+
+    Token token(int index) {
+        return new Token(type(index), lexeme(index), literal(index), line(index));
+    }
+
+    /**
+     * A {@link Token} view, each token is created when it's read
+     */
+    List<Token> tokens() {
+        return new AbstractList<Token>() {
+            @Override
+            public Token get(int index) {
+                return token(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Reads the tokens from {@code from} up to {@code to} (exclusive) and then an {@code EOF}
+     */
+    Cursor cursor(int from, int to) {
+        return new Cursor(from, to);
+    }
+
+    /**
+     * A {@link TokenSource} that knows where in the buffer it is, so a parser can skip tokens without reading them
+     */
+    final class Cursor implements TokenSource {
+        private final int end;
+        private int next;
+
+        private Cursor(int from, int to) {
+            this.next = from;
+            this.end = to;
+        }
+
+        @Override
+        public Token nextToken() {
+            if (next < end) return token(next++);
+            return new Token(TokenType.EOF, "", null, line(Math.min(end, size - 1)));
+        }
+
+        /**
+         * @return index of the token the next {@link #nextToken()} returns
+         */
+        int position() {
+            return next;
+        }
+
+        void seek(int index) {
+            next = index;
+        }
+    }
+
+    private int column(int column, int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+        return chunks[index >>> CHUNK_BITS][column + (index & (CHUNK_SIZE - 1))];
+    }
+
+    private String intern(int start, int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + source[i];
+        }
+
+        int mask = interned.length - 1;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            String candidate = interned[slot];
+            if (candidate == null) {
+                String lexeme = new String(source, start, length);
+                interned[slot] = lexeme;
+                if (++internedCount * 2 > interned.length) rehash();
+                return lexeme;
+            }
+            if (candidate.hashCode() == hash && matches(candidate, start, length)) return candidate;
+        }
+    }
+
+    private boolean matches(String candidate, int start, int length) {
+        if (candidate.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (candidate.charAt(i) != source[start + i]) return false;
+        }
+        return true;
+    }
+
+    private void rehash() {
+        String[] old = interned;
+        interned = new String[old.length * 2];
+        int mask = interned.length - 1;
+        for (String lexeme : old) {
+            if (lexeme == null) continue;
+            int slot = spread(lexeme.hashCode()) & mask;
+            while (interned[slot] != null) slot = (slot + 1) & mask;
+            interned[slot] = lexeme;
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
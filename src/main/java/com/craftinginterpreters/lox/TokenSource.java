@@ -0,0 +1,27 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tokens handed to the {@link Parser} one at a time. After {@code EOF} it keeps returning {@code EOF}.
+ */
+interface TokenSource {
+    Token nextToken();
+
+    /**
+     * @param tokens ending with {@code EOF}, as returned by {@link Scanner#scanTokens()}
+     */
+    static TokenSource of(List<Token> tokens) {
+        Iterator<Token> iterator = tokens.iterator();
+        return new TokenSource() {
+            private Token last;
+
+            @Override
+            public Token nextToken() {
+                if (iterator.hasNext()) last = iterator.next();
+                return last;
+            }
+        };
+    }
+}
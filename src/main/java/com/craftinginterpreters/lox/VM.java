@@ -0,0 +1,533 @@
+package com.craftinginterpreters.lox;
+
+import com.craftinginterpreters.lox.VmClosure.Upvalue;
+
+import java.util.Arrays;
+
+/**
+ * Stack based virtual machine running the bytecode produced by the {@link BytecodeCompiler}.
+ * An alternative to the tree-walking {@link Interpreter} with the same language semantics.
+ *
+ * Numbers are kept unboxed: a stack slot holding a number has the {@link #NUMBER} marker in {@code stack}
+ * and its value in the parallel {@code numbers} array. Values are boxed only when they leave the VM
+ * (printing, native calls, string concatenation).
+ */
+class VM {
+    static final Object NUMBER = new Object() {
+        @Override
+        public String toString() {
+            return "<number>";
+        }
+    };
+
+    private static final int FRAMES_MAX = 1 << 16;
+    // stack space guaranteed to a function on call: its locals plus the temporaries of its expressions
+    private static final int FRAME_STACK_SIZE = 1024;
+
+    final VmGlobals globals = new VmGlobals();
+    private final ErrorReporter reporter;
+
+    private Object[] stack = new Object[FRAME_STACK_SIZE * 4];
+    private double[] numbers = new double[FRAME_STACK_SIZE * 4];
+    private int stackTop = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    private Upvalue openUpvalues;
+    private Fuel fuel = Fuel.unmetered();
+    private boolean metered = false;
+    // left of the slice taken from fuel, spent at loops and calls like the Interpreter's
+    private int ticks = 0;
+    // frames live on the VM's stack, only strings and closures are counted
+    private HeapAccount heap = HeapAccount.unlimited();
+    private OutputSink output = OutputSink.systemOut();
+
+    VM() {
+        this(new ErrorReporter(System.err));
+    }
+
+    VM(ErrorReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    /**
+     * Executions after this one spend the given fuel
+     */
+    void setFuel(Fuel fuel) {
+        this.fuel = fuel;
+        this.metered = fuel.isMetered();
+        this.ticks = 0;
+    }
+
+    /**
+     * Executions after this one count what they allocate in the given account
+     */
+    void setHeap(HeapAccount heap) {
+        this.heap = heap;
+    }
+
+    void setOutput(OutputSink output) {
+        this.output = output;
+    }
+
+    void interpret(VmFunction script) {
+        try {
+            VmClosure closure = new VmClosure(script);
+            stack[stackTop++] = closure;
+            pushFrame(closure, 0);
+            run();
+        } catch (LoxRuntimeError error) {
+            // what was printed before the error comes first
+            output.flush();
+            reporter.runtimeError(error);
+        } finally {
+            resetStack();
+        }
+    }
+
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.code;
+        Object[] constants = frame.closure.function.constants;
+        int ip = frame.ip;
+        int base = frame.base;
+        // the stack and its top are kept in locals, they are written back before calling out
+        Object[] stack = this.stack;
+        double[] numbers = this.numbers;
+        int sp = stackTop;
+
+        for (;;) {
+            byte instruction = code[ip++];
+            switch (instruction) {
+                case OpCode.CONSTANT: {
+                    Object constant = constants[readShort(code, ip)];
+                    ip += 2;
+                    if (constant instanceof Double) {
+                        numbers[sp] = (double) constant;
+                        stack[sp++] = NUMBER;
+                    } else {
+                        stack[sp++] = constant;
+                    }
+                    break;
+                }
+                case OpCode.NIL: stack[sp++] = null; break;
+                case OpCode.TRUE: stack[sp++] = true; break;
+                case OpCode.FALSE: stack[sp++] = false; break;
+                case OpCode.POP: sp--; break;
+
+                case OpCode.GET_LOCAL: {
+                    int slot = base + (code[ip++] & 0xff);
+                    Object value = stack[slot];
+                    checkInitialized(value, frame, ip);
+                    numbers[sp] = numbers[slot];
+                    stack[sp++] = value;
+                    break;
+                }
+                case OpCode.SET_LOCAL: {
+                    int slot = base + (code[ip++] & 0xff);
+                    stack[slot] = stack[sp - 1];
+                    numbers[slot] = numbers[sp - 1];
+                    break;
+                }
+                case OpCode.GET_GLOBAL: {
+                    int slot = readShort(code, ip);
+                    ip += 2;
+                    Object value = globals.values[slot];
+                    if (value == VmGlobals.UNDEFINED) {
+                        throw runtimeError(frame, ip, "Undefinded variable " + globals.name(slot));
+                    }
+                    checkInitialized(value, frame, ip);
+                    numbers[sp] = globals.numbers[slot];
+                    stack[sp++] = value;
+                    break;
+                }
+                case OpCode.DEFINE_GLOBAL: {
+                    int slot = readShort(code, ip);
+                    ip += 2;
+                    sp--;
+                    globals.values[slot] = stack[sp];
+                    globals.numbers[slot] = numbers[sp];
+                    break;
+                }
+                case OpCode.SET_GLOBAL: {
+                    int slot = readShort(code, ip);
+                    ip += 2;
+                    if (globals.values[slot] == VmGlobals.UNDEFINED) {
+                        throw runtimeError(frame, ip, "Undefined variable " + globals.name(slot));
+                    }
+                    globals.values[slot] = stack[sp - 1];
+                    globals.numbers[slot] = numbers[sp - 1];
+                    break;
+                }
+                case OpCode.GET_UPVALUE: {
+                    Upvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    Object value;
+                    if (upvalue.isOpen()) {
+                        value = stack[upvalue.stackSlot];
+                        numbers[sp] = numbers[upvalue.stackSlot];
+                    } else {
+                        value = upvalue.closedValue;
+                        numbers[sp] = upvalue.closedNumber;
+                    }
+                    checkInitialized(value, frame, ip);
+                    stack[sp++] = value;
+                    break;
+                }
+                case OpCode.SET_UPVALUE: {
+                    Upvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    if (upvalue.isOpen()) {
+                        stack[upvalue.stackSlot] = stack[sp - 1];
+                        numbers[upvalue.stackSlot] = numbers[sp - 1];
+                    } else {
+                        upvalue.closedValue = stack[sp - 1];
+                        upvalue.closedNumber = numbers[sp - 1];
+                    }
+                    break;
+                }
+
+                case OpCode.EQUAL: {
+                    sp--;
+                    stack[sp - 1] = isEqual(stack, numbers, sp - 1, sp);
+                    break;
+                }
+                case OpCode.NOT_EQUAL: {
+                    sp--;
+                    stack[sp - 1] = !isEqual(stack, numbers, sp - 1, sp);
+                    break;
+                }
+                case OpCode.GREATER: {
+                    checkNumberOperands(stack, sp, frame, ip);
+                    sp--;
+                    stack[sp - 1] = numbers[sp - 1] > numbers[sp];
+                    break;
+                }
+                case OpCode.GREATER_EQUAL: {
+                    checkNumberOperands(stack, sp, frame, ip);
+                    sp--;
+                    stack[sp - 1] = numbers[sp - 1] >= numbers[sp];
+                    break;
+                }
+                case OpCode.LESS: {
+                    checkNumberOperands(stack, sp, frame, ip);
+                    sp--;
+                    stack[sp - 1] = numbers[sp - 1] < numbers[sp];
+                    break;
+                }
+                case OpCode.LESS_EQUAL: {
+                    checkNumberOperands(stack, sp, frame, ip);
+                    sp--;
+                    stack[sp - 1] = numbers[sp - 1] <= numbers[sp];
+                    break;
+                }
+                case OpCode.ADD: {
+                    Object lhs = stack[sp - 2];
+                    Object rhs = stack[sp - 1];
+                    if (lhs == NUMBER && rhs == NUMBER) {
+                        sp--;
+                        numbers[sp - 1] += numbers[sp];
+                    } else if (Values.isString(lhs) || Values.isString(rhs)) {
+                        CharSequence concatenated = Rope.concat(
+                                Values.text(box(stack, numbers, sp - 2)), Values.text(box(stack, numbers, sp - 1)),
+                                heap, frame.closure.function.lines[ip - 1]);
+                        sp--;
+                        stack[sp - 1] = concatenated;
+                    } else {
+                        throw runtimeError(frame, ip, "Only Strings and Numbers are supported");
+                    }
+                    break;
+                }
+                case OpCode.SUBTRACT: {
+                    checkNumberOperands(stack, sp, frame, ip);
+                    sp--;
+                    numbers[sp - 1] -= numbers[sp];
+                    break;
+                }
+                case OpCode.MULTIPLY: {
+                    checkNumberOperands(stack, sp, frame, ip);
+                    sp--;
+                    numbers[sp - 1] *= numbers[sp];
+                    break;
+                }
+                case OpCode.DIVIDE: {
+                    checkNumberOperands(stack, sp, frame, ip);
+                    double result = numbers[sp - 2] / numbers[sp - 1];
+                    if (Double.isInfinite(result)) {
+                        throw runtimeError(frame, ip, "Division by zero");
+                    }
+                    sp--;
+                    numbers[sp - 1] = result;
+                    break;
+                }
+                case OpCode.NOT: {
+                    stack[sp - 1] = !isTruthy(stack[sp - 1]);
+                    break;
+                }
+                case OpCode.NEGATE: {
+                    if (stack[sp - 1] != NUMBER) {
+                        throw runtimeError(frame, ip, "Operand must be a number.");
+                    }
+                    numbers[sp - 1] = -numbers[sp - 1];
+                    break;
+                }
+
+                case OpCode.PRINT: {
+                    sp--;
+                    if (stack[sp] == NUMBER) {
+                        output.println(numbers[sp]);
+                    } else {
+                        output.println(Values.stringify(stack[sp]));
+                    }
+                    break;
+                }
+                case OpCode.JUMP: {
+                    ip += readShort(code, ip) + 2;
+                    break;
+                }
+                case OpCode.JUMP_IF_FALSE: {
+                    if (isTruthy(stack[sp - 1])) {
+                        ip += 2;
+                    } else {
+                        ip += readShort(code, ip) + 2;
+                    }
+                    break;
+                }
+                case OpCode.POP_JUMP_IF_FALSE: {
+                    if (isTruthy(stack[--sp])) {
+                        ip += 2;
+                    } else {
+                        ip += readShort(code, ip) + 2;
+                    }
+                    break;
+                }
+                case OpCode.LOOP: {
+                    if (metered && --ticks < 0) ticks = fuel.take(frame.closure.function.lines[ip - 1]) - 1;
+                    ip -= readShort(code, ip) - 2;
+                    break;
+                }
+                case OpCode.CALL: {
+                    int argCount = code[ip++] & 0xff;
+                    Object callee = stack[sp - 1 - argCount];
+                    frame.ip = ip;
+
+                    if (callee instanceof VmClosure) {
+                        VmClosure closure = (VmClosure) callee;
+                        if (argCount != closure.function.arity) {
+                            throw arityError(frame, ip, closure.function.arity, argCount);
+                        }
+                        if (metered && --ticks < 0) ticks = fuel.take(frame.closure.function.lines[ip - 1]) - 1;
+                        stackTop = sp;
+                        frame = pushFrame(closure, sp - argCount - 1);
+                        stack = this.stack;
+                        numbers = this.numbers;
+                        code = closure.function.code;
+                        constants = closure.function.constants;
+                        ip = 0;
+                        base = frame.base;
+                    } else if (callee instanceof LoxCallable) {
+                        LoxCallable function = (LoxCallable) callee;
+                        if (argCount != function.arity()) {
+                            throw arityError(frame, ip, function.arity(), argCount);
+                        }
+                        Object[] arguments = new Object[argCount];
+                        for (int i = 0; i < argCount; i++) {
+                            arguments[i] = box(stack, numbers, sp - argCount + i);
+                        }
+                        // natives don't depend on the Interpreter
+                        Object result = function.call(null, Arrays.asList(arguments));
+                        sp -= argCount + 1;
+                        sp = unbox(stack, numbers, sp, result);
+                    } else {
+                        throw runtimeError(frame, ip, "Can only call functions and classes");
+                    }
+                    break;
+                }
+                case OpCode.CLOSURE: {
+                    VmFunction function = (VmFunction) constants[readShort(code, ip)];
+                    VmClosure closure = heap.allocate(new VmClosure(function),
+                            HeapAccount.functionBytes(function.upvalueCount), frame.closure.function.lines[ip - 1]);
+                    ip += 2;
+                    for (int i = 0; i < closure.upvalues.length; i++) {
+                        boolean isLocal = code[ip++] == 1;
+                        int index = code[ip++] & 0xff;
+                        closure.upvalues[i] = isLocal ?
+                                captureUpvalue(base + index) :
+                                frame.closure.upvalues[index];
+                    }
+                    stack[sp++] = closure;
+                    break;
+                }
+                case OpCode.CLOSE_UPVALUE: {
+                    closeUpvalues(sp - 1);
+                    sp--;
+                    break;
+                }
+                case OpCode.RETURN: {
+                    sp--;
+                    Object result = stack[sp];
+                    double resultNumber = numbers[sp];
+                    closeUpvalues(base);
+                    frameCount--;
+                    // the callee and its arguments are discarded too
+                    sp = base;
+                    if (frameCount == 0) {
+                        stackTop = sp;
+                        return;
+                    }
+
+                    numbers[sp] = resultNumber;
+                    stack[sp++] = result;
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.code;
+                    constants = frame.closure.function.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case OpCode.ERROR: {
+                    String message = (String) constants[readShort(code, ip)];
+                    ip += 2;
+                    throw runtimeError(frame, ip, message);
+                }
+                default:
+                    throw runtimeError(frame, ip, "Unknown opcode " + instruction);
+            }
+        }
+    }
+
+    private CallFrame pushFrame(VmClosure closure, int base) {
+        if (frameCount == FRAMES_MAX) {
+            throw new LoxRuntimeError(currentLine(), "Stack overflow.");
+        }
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+        if (stack.length - stackTop < FRAME_STACK_SIZE) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+            numbers = Arrays.copyOf(numbers, numbers.length * 2);
+        }
+
+        // frames are reused to keep calls allocation free
+        CallFrame frame = frames[frameCount];
+        if (frame == null) {
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = base;
+        frameCount++;
+        return frame;
+    }
+
+    private Upvalue captureUpvalue(int stackSlot) {
+        // open upvalues are sorted by stack slot, top-most first
+        Upvalue previous = null;
+        Upvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.stackSlot > stackSlot) {
+            previous = upvalue;
+            upvalue = upvalue.nextOpen;
+        }
+
+        if (upvalue != null && upvalue.stackSlot == stackSlot) {
+            return upvalue;
+        }
+
+        Upvalue created = new Upvalue(stackSlot, upvalue);
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.nextOpen = created;
+        }
+        return created;
+    }
+
+    /**
+     * Moves the values of all variables at or above {@code lastSlot} off the stack into their upvalues
+     */
+    private void closeUpvalues(int lastSlot) {
+        while (openUpvalues != null && openUpvalues.stackSlot >= lastSlot) {
+            Upvalue upvalue = openUpvalues;
+            upvalue.closedValue = stack[upvalue.stackSlot];
+            upvalue.closedNumber = numbers[upvalue.stackSlot];
+            upvalue.stackSlot = -1;
+            openUpvalues = upvalue.nextOpen;
+            upvalue.nextOpen = null;
+        }
+    }
+
+    /**
+     * @return the value at {@code slot} as the Interpreter would see it, i.e. numbers as {@code Double}
+     */
+    private static Object box(Object[] stack, double[] numbers, int slot) {
+        return stack[slot] == NUMBER ? (Object) numbers[slot] : stack[slot];
+    }
+
+    /**
+     * Pushes a value coming from outside of the VM
+     * @return new stack top
+     */
+    private static int unbox(Object[] stack, double[] numbers, int sp, Object value) {
+        if (value instanceof Double) {
+            numbers[sp] = (double) value;
+            stack[sp] = NUMBER;
+        } else {
+            stack[sp] = value;
+        }
+        return sp + 1;
+    }
+
+    /**
+     * Same as {@link Values#isEqual(Object, Object)}, which compares numbers with {@link Double#equals(Object)}
+     */
+    private static boolean isEqual(Object[] stack, double[] numbers, int lhs, int rhs) {
+        if (stack[lhs] == NUMBER && stack[rhs] == NUMBER) {
+            return Double.doubleToLongBits(numbers[lhs]) == Double.doubleToLongBits(numbers[rhs]);
+        }
+        return Values.isEqual(stack[lhs], stack[rhs]);
+    }
+
+    private static boolean isTruthy(Object value) {
+        return value == NUMBER || Values.isTruthy(value);
+    }
+
+    private static int readShort(byte[] code, int ip) {
+        return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+    }
+
+    private void checkNumberOperands(Object[] stack, int sp, CallFrame frame, int ip) {
+        if (stack[sp - 2] == NUMBER && stack[sp - 1] == NUMBER) return;
+        throw runtimeError(frame, ip, "Operands must be numbers.");
+    }
+
+    private void checkInitialized(Object value, CallFrame frame, int ip) {
+        if (value == Interpreter.VariableUninitialized.UNINITIALIZED) {
+            throw runtimeError(frame, ip, "Uninitialized variable ");
+        }
+    }
+
+    private LoxRuntimeError arityError(CallFrame frame, int ip, int arity, int argCount) {
+        return runtimeError(frame, ip, String.format("Expected %s arguments but got %s.", arity, argCount));
+    }
+
+    private LoxRuntimeError runtimeError(CallFrame frame, int ip, String message) {
+        // ip already points past the failed instruction
+        return new LoxRuntimeError(frame.closure.function.lines[ip - 1], message);
+    }
+
+    private int currentLine() {
+        CallFrame frame = frames[frameCount - 1];
+        return frame.closure.function.lines[frame.ip - 1];
+    }
+
+    private void resetStack() {
+        Arrays.fill(stack, null);
+        stackTop = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    private static final class CallFrame {
+        VmClosure closure;
+        int ip;
+        int base;
+    }
+}
@@ -0,0 +1,100 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Objects;
+
+/**
+ * Lox value semantics shared by the execution engines ({@link Interpreter} and {@link VM})
+ */
+final class Values {
+    // Double.toString() switches to computerized scientific notation from here on
+    private static final double PLAIN_NOTATION_LIMIT = 1e7;
+    private static final long NEGATIVE_ZERO_BITS = Double.doubleToRawLongBits(-0.0);
+
+    private Values() {
+    }
+
+    /**
+     * Everything except {@code nil} and {@code false} is {@code truthy}
+     * Like in Ruby
+     */
+    static boolean isTruthy(Object object) {
+        if (Objects.isNull(object)) {
+            return false;
+        }
+
+        if (object instanceof Boolean) {
+            return (boolean) object;
+        }
+
+        return true;
+    }
+
+    static boolean isEqual(Object a, Object b) {
+        // a rope is equal to the String with the same characters
+        if (a instanceof Rope || b instanceof Rope) {
+            return isString(a) && isString(b)
+                    && ((CharSequence) a).length() == ((CharSequence) b).length()
+                    && a.toString().equals(b.toString());
+        }
+        // nil is only equal to nil.
+        return Objects.equals(a, b);
+    }
+
+    static boolean isString(Object object) {
+        return object instanceof String || object instanceof Rope;
+    }
+
+    /**
+     * Operand of a string concatenation, strings and ropes are kept as they are so ropes aren't flattened
+     */
+    static CharSequence text(Object object) {
+        return isString(object) ? (CharSequence) object : stringify(object);
+    }
+
+    static String stringify(Object object) {
+        if (object == null) return "nil";
+        if (object instanceof Double) return formatNumber((double) object);
+        return object.toString();
+    }
+
+    /**
+     * Same text as {@link Double#toString(double)} without a trailing ".0"
+     */
+    static String formatNumber(double number) {
+        if (isPlainInteger(number)) return Long.toString((long) number);
+        return formatFraction(number);
+    }
+
+    /**
+     * {@link #formatNumber(double)} appended to {@code builder}, an integer's digits are written into it directly
+     */
+    static void appendNumber(StringBuilder builder, double number) {
+        if (isPlainInteger(number)) {
+            builder.append((long) number);
+        } else {
+            builder.append(formatFraction(number));
+        }
+    }
+
+    /**
+     * Whether {@link Double#toString(double)} writes the number as its digits and ".0", so it's the same as its long's
+     * digits. {@code -0.0} isn't, it's written as {@code -0}.
+     */
+    private static boolean isPlainInteger(double number) {
+        return number == (long) number
+                && Math.abs(number) < PLAIN_NOTATION_LIMIT
+                && Double.doubleToRawLongBits(number) != NEGATIVE_ZERO_BITS;
+    }
+
+    /**
+     * Fractions, large numbers in scientific notation, -0, NaN and infinities
+     */
+    private static String formatFraction(double number) {
+        String text = Double.toString(number);
+        // Work around Java adding ".0" to integer-valued doubles.
+        if (text.endsWith(".0")) {
+            text = text.substring(0, text.length() - 2);
+        }
+        return text;
+    }
+}
@@ -0,0 +1,40 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Runtime function value of the {@link VM}
+ */
+class VmClosure {
+    final VmFunction function;
+    final Upvalue[] upvalues;
+
+    VmClosure(VmFunction function) {
+        this.function = function;
+        this.upvalues = new Upvalue[function.upvalueCount];
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+
+    /**
+     * Variable captured by a closure.
+     * While the variable is still on the VM stack the upvalue is "open" and points at its stack slot,
+     * once the variable goes out of scope the value is moved into the upvalue itself.
+     */
+    static final class Upvalue {
+        int stackSlot;
+        Object closedValue;
+        double closedNumber;
+        Upvalue nextOpen;
+
+        Upvalue(int stackSlot, Upvalue nextOpen) {
+            this.stackSlot = stackSlot;
+            this.nextOpen = nextOpen;
+        }
+
+        boolean isOpen() {
+            return stackSlot != -1;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Compiled function as produced by the {@link BytecodeCompiler}.
+ * Not callable by itself: the {@link VM} wraps it in a {@link VmClosure} together with its captured upvalues.
+ */
+class VmFunction {
+    final String name;
+    final int arity;
+    final int upvalueCount;
+    final byte[] code;
+    final int[] lines;
+    final Object[] constants;
+
+    VmFunction(String name, int arity, int upvalueCount, Chunk chunk) {
+        this.name = name;
+        this.arity = arity;
+        this.upvalueCount = upvalueCount;
+        this.code = chunk.code();
+        this.lines = chunk.lines();
+        this.constants = chunk.constants();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("<fn %s >", name);
+    }
+}
@@ -0,0 +1,46 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Global variables of a {@link VM}.
+ * The {@link BytecodeCompiler} assigns every global name a slot, so the VM accesses globals by index
+ * instead of hashing names at runtime.
+ */
+class VmGlobals {
+    // marks slots that were referenced by compiled code but never defined
+    static final Object UNDEFINED = new Object();
+
+    private final Map<Symbol, Integer> slots = new HashMap<>();
+    private final List<Symbol> names = new ArrayList<>();
+    // numbers are stored unboxed, same as on the VM stack
+    Object[] values = new Object[64];
+    double[] numbers = new double[64];
+
+    VmGlobals() {
+        values[slot(Symbol.of("clock"))] = Natives.CLOCK;
+    }
+
+    int slot(Symbol name) {
+        Integer slot = slots.get(name);
+        if (slot != null) return slot;
+
+        slot = names.size();
+        slots.put(name, slot);
+        names.add(name);
+        if (slot == values.length) {
+            values = Arrays.copyOf(values, slot * 2);
+            numbers = Arrays.copyOf(numbers, slot * 2);
+        }
+        values[slot] = UNDEFINED;
+        return slot;
+    }
+
+    String name(int slot) {
+        return names.get(slot).name();
+    }
+}
@@ -9,7 +9,13 @@ import java.util.Arrays;
 import java.util.List;
 
 public class GenerateAst {
-    // run with src/main/java/com/craftinginterpreters/lox as argument
+    /*
+     * run with src/main/java/com/craftinginterpreters/lox as argument
+     *
+     * Type definition format is "ClassName : constructor fields | annotation fields".
+     * Annotation fields are optional, mutable and filled in by later passes (e.g. the Resolver),
+     * so they're not part of the constructor and are excluded from equals()/hashCode().
+     */
     public static void main(String[] args) throws IOException {
         if (args.length != 1) {
             System.err.println("Usage: generate_ast <output directory>");
@@ -24,26 +30,26 @@ public class GenerateAst {
         }
 
         defineAst(outputDirPath, "Expr", Arrays.asList(
-                "Assign         : Token name, Expr value",
-                "Binary         : Expr left, Token operator, Expr right",
-                "Call           : Expr callee, Token paren, List<Expr> arguments",
+                "Assign         : Token name, Expr value | int depth = -1, int slot = -1",
+                "Binary         : Expr left, Token operator, Expr right | Specialization specialization = Specialization.UNINITIALIZED",
+                "Call           : Expr callee, Token paren, List<Expr> arguments | InlineCache cache = null",
                 "Grouping       : Expr expression",
                 "Literal        : Object value",
                 "Logical        : Expr left, Token operator, Expr right",
                 "Unary          : Token operator, Expr right",
                 "Conditional    : Expr condition, Expr caseTrue, Expr caseFalse",
-                "Variable       : Token name"
+                "Variable       : Token name | int depth = -1, int slot = -1"
         ));
 
         defineAst(outputDirPath, "Stmt", Arrays.asList(
-                "Block      : List<Stmt> statements",
+                "Block      : List<Stmt> statements | int slotCount = 0, boolean[] capturedSlots = null",
                 "Expression : Expr expression",
-                "Function   : Token name, List<Token> params, List<Stmt> body",
+                "Function   : Token name, List<Token> params, List<Stmt> body | int slot = -1, int slotCount = 0, boolean[] capturedSlots = null, List<Capture> captures = List.of()",
                 "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
                 "Print      : Expr expression",
                 "Return     : Token keyword, Expr value",
-                "While      : Expr condition, Stmt body",
-                "Var        : Token name, Expr initializer",
+                "While      : Token keyword, Expr condition, Stmt body",
+                "Var        : Token name, Expr initializer | int slot = -1",
                 // TODO: add Token keyword, like in the Return Stmt
                 "Break      : "
         ));
@@ -70,8 +76,10 @@ public class GenerateAst {
             for (String typeDef : typeDefinitions) {
                 String[] split = typeDef.split(":");
                 String className = split[0].trim();
-                String fields = split.length > 1 ? split[1].trim() : "";
-                defineType(writer, baseName, className, fields);
+                String[] fieldGroups = split.length > 1 ? split[1].split("\\|") : new String[0];
+                String fields = fieldGroups.length > 0 ? fieldGroups[0].trim() : "";
+                String annotationFields = fieldGroups.length > 1 ? fieldGroups[1].trim() : "";
+                defineType(writer, baseName, className, fields, annotationFields);
             }
 
             // The base accept() method.
@@ -93,7 +101,8 @@ public class GenerateAst {
         writer.println("  }");
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+    private static void defineType(PrintWriter writer, String baseName, String className,
+                                   String fieldList, String annotationFieldList) {
         // base Expr class isn't supposed to have a meaningful equals() for now
         writer.println("  @EqualsAndHashCode(callSuper = false)");
         writer.printf("  static class %s extends %s {\n", className, baseName );
@@ -127,6 +136,12 @@ public class GenerateAst {
             writer.printf("    final %s;\n", field);
         }
 
+        if (annotationFieldList.length() > 0) {
+            for (String field : annotationFieldList.split(", ")) {
+                writer.printf("    @EqualsAndHashCode.Exclude %s;\n", field);
+            }
+        }
+
         writer.println("  }");
     }
 }
@@ -0,0 +1,43 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class BufferedOutputTest {
+    @Test
+    void test_linesAreWrittenAtThresholdAndFlush() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputSink output = OutputSink.buffered(Channels.newChannel(bytes), StandardCharsets.UTF_8);
+
+        output.println("ü");
+        assertThat(bytes.size(), is(0));
+
+        String line = "x".repeat(BufferedOutput.THRESHOLD);
+        output.println(line);
+        assertThat(bytes.toString(StandardCharsets.UTF_8), is("ü" + System.lineSeparator() + line + System.lineSeparator()));
+
+        output.println("last");
+        output.flush();
+        assertThat(bytes.toString(StandardCharsets.UTF_8).endsWith(line + System.lineSeparator() + "last" + System.lineSeparator()), is(true));
+    }
+
+    @Test
+    void test_outputBeforeRuntimeErrorIsFlushed() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Interpreter interpreter = new Interpreter(new ErrorReporter(new PrintStream(new ByteArrayOutputStream())));
+        interpreter.setOutput(OutputSink.buffered(Channels.newChannel(bytes), StandardCharsets.UTF_8));
+
+        List<Stmt> statements = new Parser(new Scanner("print \"before\"; print -\"a\";").scanTokens()).parse();
+        new Resolver().resolve(statements);
+        assertThat(interpreter.interpret(statements), is(false));
+        assertThat(bytes.toString(StandardCharsets.UTF_8), is("before" + System.lineSeparator()));
+    }
+}
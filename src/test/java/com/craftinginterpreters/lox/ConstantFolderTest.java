@@ -0,0 +1,71 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+class ConstantFolderTest {
+
+    @ParameterizedTest
+    @MethodSource("foldExpressionTest")
+    void foldExpressionTest(String source, String expectedAst) {
+        Stmt.Expression folded = (Stmt.Expression) fold(source).get(0);
+        assertThat(new AstPrinter().print(folded.expression), is(expectedAst));
+    }
+
+    static Stream<Arguments> foldExpressionTest() {
+        return Stream.of(
+                Arguments.arguments("1 + 3 + 5;", "9.0"),
+                Arguments.arguments("\"a\" + \"B\" + \"#\";", "aB#"),
+                Arguments.arguments("\"n\" + 1;", "n1"),
+                Arguments.arguments("-(2 * 3) < 0 == !nil;", "true"),
+                Arguments.arguments("x + (1 + 2);", "(+ def x 3.0)"),
+                Arguments.arguments("true ? x : y;", "def x"),
+                Arguments.arguments("false or x;", "def x"),
+                Arguments.arguments("nil and x;", "nil"),
+                Arguments.arguments("f(2 * 2);", "(call def f 4.0)"),
+                // runtime errors must still happen at runtime
+                Arguments.arguments("1 / (1 - 1);", "(/ 1.0 0.0)"),
+                Arguments.arguments("-\"a\";", "(- a)"),
+                Arguments.arguments("1 + nil;", "(+ 1.0 nil)")
+        );
+    }
+
+    @Test
+    void test_deadBranchesArePruned() {
+        List<Stmt> statements = fold("if (1 > 2) print 1; else print 2; while (false) print 3; if (nil) print 4;");
+
+        assertThat(statements.size(), is(1));
+        Stmt.Print print = (Stmt.Print) statements.get(0);
+        assertThat(((Expr.Literal) print.expression).value, is(2.0));
+    }
+
+    @Test
+    void test_prunedLoopBodyLeavesEmptyBlock() {
+        Stmt.While loop = (Stmt.While) fold("while (x) if (false) print 1;").get(0);
+
+        assertThat(loop.body, instanceOf(Stmt.Block.class));
+        assertThat(((Stmt.Block) loop.body).statements, is(empty()));
+    }
+
+    @Test
+    void test_unchangedTreeIsReused() {
+        List<Stmt> statements = new Parser(new Scanner("fun f(a) { while (a) { print a; } }").scanTokens()).parse();
+        assertThat(new ConstantFolder().fold(statements), is(sameInstance(statements)));
+    }
+
+    private static List<Stmt> fold(String source) {
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        return new ConstantFolder().fold(statements);
+    }
+}
@@ -0,0 +1,212 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class InterpreterTest {
+    @Test
+    void test_breakLeavesInnermostLoopOnly() {
+        String source = "for (var i = 0; i < 3; i = i + 1) { while (true) { print i; break; print \"unreachable\"; } }";
+        assertThat(run(source), is(lines("0", "1", "2")));
+    }
+
+    @Test
+    void test_returnFromNestedLoopsAndBlocks() {
+        String source = "fun find(n) { var i = 0; while (true) { { if (i == n) return i * 10; } i = i + 1; } }"
+                + "print find(4);";
+        assertThat(run(source), is(lines("40")));
+    }
+
+    @Test
+    void test_earlyReturnInRecursion() {
+        String source = "fun fib(n) { if (n <= 1) return n; return fib(n - 2) + fib(n - 1); } print fib(15);"
+                + "fun noValue() { return; } print noValue();";
+        assertThat(run(source), is(lines("610", "nil")));
+    }
+
+    @Test
+    void test_closuresShareCapturedVariables() {
+        String source = "fun make() { var n = 0; fun inc() { n = n + 1; return n; } fun get() { return n; }"
+                + " fun nested() { fun deeper() { n = n + 10; } deeper(); } inc(); inc(); nested(); print get(); return inc; }"
+                + "var a = make(); var b = make(); print a(); print a(); print b();"
+                + "for (var i = 0; i < 2; i = i + 1) { var j = i; fun show() { print j; } j = j + 100; show(); }";
+        assertThat(run(source), is(lines("12", "12", "13", "14", "13", "100", "101")));
+    }
+
+    @Test
+    void test_localsSwitchBetweenNumbersAndStrings() {
+        String source = "{ var x = 1; x = x + 1; print x; x = \"s\" + x; print x; x = x + 1; print x;"
+                + " var y = -(x + \"\" == \"s21\" ? 2 : 3) * 2; print y; print y < 0; }";
+        assertThat(run(source), is(lines("2", "s2", "s21", "-4", "true")));
+    }
+
+    @Test
+    void test_binaryNodesSpecializeAndDeoptimize() {
+        List<Stmt> statements = parse("fun add(a, b) { return a + b; } fun eq(a, b) { return a == b; }"
+                + "print add(1, 2); print eq(1, 1);");
+        Stmt.Function add = (Stmt.Function) statements.get(0);
+        Stmt.Function eq = (Stmt.Function) statements.get(1);
+        Expr.Binary plus = (Expr.Binary) ((Stmt.Return) add.body.get(0)).value;
+        Expr.Binary equal = (Expr.Binary) ((Stmt.Return) eq.body.get(0)).value;
+
+        assertThat(plus.specialization, is(Specialization.UNINITIALIZED));
+        assertThat(run(statements), is(lines("3", "true")));
+        assertThat(plus.specialization, is(Specialization.NUMBER));
+        assertThat(equal.specialization, is(Specialization.NUMBER));
+
+        List<Stmt> calls = parse("print add(\"a\", 2); print add(3, 4); print eq(1, nil); print eq(2, 2);");
+        assertThat(run(statements, calls), is(lines("3", "true", "a2", "7", "false", "true")));
+        assertThat(plus.specialization, is(Specialization.GENERIC));
+        assertThat(equal.specialization, is(Specialization.GENERIC));
+    }
+
+    @Test
+    void test_inlineCacheIsInvalidatedWhenGlobalFunctionChanges() {
+        Interpreter interpreter = new Interpreter();
+        String source = "fun a() { return \"a\"; } fun b() { return \"b\"; } fun callF() { return f(); }"
+                + "var f = a; print callF(); print callF(); f = b; print callF(); var x = 0; x = 1; print callF();";
+
+        assertThat(run(interpreter, parse(source)), is(lines("a", "a", "b", "b")));
+        // each of the four callF() call sites misses once,
+        // the f() call site in callF() misses on first use and after the reassignment of f, but not of x
+        assertThat(interpreter.inlineCacheMisses(), is(6L));
+        assertThat(interpreter.inlineCacheHits(), is(2L));
+    }
+
+    @Test
+    void test_lazilyParsedFunctionsRunOnFirstCall() {
+        String source = "var base = 10; fun broken() { print ; } "
+                + "fun makeAdder(n) { var total = base; fun add(x) { total = total + x + n; return total; } return add; }"
+                + "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }"
+                + "var add = makeAdder(1); print add(2); print add(3); print fib(10);";
+        List<Stmt> statements = new ConstantFolder().fold(new Parser(new Scanner(source).scanBuffer(), true, new ErrorReporter(System.err)).parse());
+        new Resolver().resolve(statements);
+
+        assertThat(run(statements), is(lines("13", "17", "55")));
+        assertThat(((LazyBody) ((Stmt.Function) statements.get(1)).body).isParsed(), is(false));
+    }
+
+    @Test
+    void test_lazilyParsedBodyWithSyntaxErrorFailsWhenCalled() {
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        ErrorReporter reporter = new ErrorReporter(new PrintStream(errors, true));
+        List<Stmt> statements = new Parser(new Scanner("fun f() { print 1 }\nprint 2; f();").scanBuffer(), true, reporter).parse();
+        new Resolver(reporter).resolve(statements);
+
+        assertThat(run(new Interpreter(reporter), statements), is(lines("2")));
+        assertThat(errors.toString(), is(lines(
+                "[line 1] Error at '}': Expect ';' after value.",
+                "Function body has errors. [line 1]")));
+    }
+
+    @Test
+    void test_fuelBoundsLoopsAndCalls() {
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        Interpreter interpreter = new Interpreter(new ErrorReporter(new PrintStream(errors, true)));
+        interpreter.setFuel(new Fuel(3));
+        assertThat(run(interpreter, parse("var i = 0;\nwhile (true) { print i; i = i + 1; }")),
+                is(lines("0", "1", "2", "3")));
+
+        interpreter.setFuel(new Fuel(2));
+        assertThat(run(interpreter, parse("fun f(n) { print n; f(n + 1); }\nf(0);")), is(lines("0", "1")));
+
+        Fuel cancelled = Fuel.unlimited();
+        cancelled.cancel();
+        interpreter.setFuel(cancelled);
+        assertThat(run(interpreter, parse("for (;;) print \"never\";")), is(lines("never")));
+        assertThat(errors.toString(), is(lines(
+                "Execution ran out of fuel.[line 2]",
+                "Execution ran out of fuel.[line 1]",
+                "Execution was cancelled.[line 1]")));
+    }
+
+    @Test
+    void test_heapAccountReleasesFramesAndLimitsStrings() {
+        Interpreter interpreter = new Interpreter();
+        HeapAccount heap = HeapAccount.unlimited();
+        interpreter.setHeap(heap);
+        run(interpreter, parse("fun f(n) { if (n > 0) f(n - 1); } f(99); f(99);"));
+        assertThat(heap.peakBytes(), is(HeapAccount.functionBytes(0) + 100 * HeapAccount.environmentBytes(1)));
+        assertThat(heap.totalBytes(), is(HeapAccount.functionBytes(0) + 200 * HeapAccount.environmentBytes(1)));
+
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        interpreter = new Interpreter(new ErrorReporter(new PrintStream(errors, true)));
+        heap = new HeapAccount(1 << 20);
+        interpreter.setHeap(heap);
+        run(interpreter, parse("var s = \"x\";\nwhile (true) { s = s + s; print s; }"));
+        assertThat(errors.toString(), is(lines("Execution ran out of memory.[line 2]")));
+        assertThat(heap.peakBytes() > 1 << 20, is(true));
+        assertThat(heap.peakBytes() < 2 << 20, is(true));
+    }
+
+    @Test
+    void test_heapLimitReleasesStringsThatAreNoLongerHeld() {
+        Interpreter interpreter = new Interpreter();
+        HeapAccount heap = new HeapAccount(1_000_000);
+        interpreter.setHeap(heap);
+        String source = "var i = 0; while (i < 100000) { var s = \"0123456789\" + i; i = i + 1; } print i;";
+        assertThat(run(interpreter, parse(source)), is(lines("100000")));
+        assertThat(heap.totalBytes() > 1_000_000, is(true));
+    }
+
+    @Test
+    void test_heapLimitStopsValuesThatAreStillHeld() {
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        Interpreter interpreter = new Interpreter(new ErrorReporter(new PrintStream(errors, true)));
+        interpreter.setHeap(new HeapAccount(1_000_000));
+        // every closure holds its string and the previous closure
+        run(interpreter, parse("{ var keep = nil; var i = 0;\nwhile (true) {\n"
+                + "var s = \"0123456789\" + i; var held = keep; fun f() { return s + held; } keep = f; i = i + 1; } }"));
+        assertThat(errors.toString(), is(lines("Execution ran out of memory.[line 3]")));
+
+        // a rope that's never flattened is only its nodes, it gets too long before it gets too big
+        errors.reset();
+        interpreter = new Interpreter(new ErrorReporter(new PrintStream(errors, true)));
+        interpreter.setHeap(new HeapAccount(1_000_000));
+        run(interpreter, parse("var s = \"ab\";\nwhile (true) s = s + s;"));
+        assertThat(errors.toString(), is(lines("String is too long.[line 2]")));
+    }
+
+    private static String run(String source) {
+        return run(parse(source));
+    }
+
+    private static List<Stmt> parse(String source) {
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        new Resolver().resolve(statements);
+        return statements;
+    }
+
+    /**
+     * Runs the programs one after the other in the same interpreter
+     */
+    @SafeVarargs
+    private static String run(List<Stmt>... programs) {
+        return run(new Interpreter(), programs);
+    }
+
+    @SafeVarargs
+    private static String run(Interpreter interpreter, List<Stmt>... programs) {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true));
+        try {
+            for (List<Stmt> program : programs) {
+                interpreter.interpret(program);
+            }
+        } finally {
+            System.setOut(stdout);
+        }
+        return out.toString();
+    }
+
+    private static String lines(String... lines) {
+        return String.join(System.lineSeparator(), lines) + System.lineSeparator();
+    }
+}
@@ -0,0 +1,116 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.StringJoiner;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class JvmCompilerTest {
+    @Test
+    void test_arithmeticStringsAndLoops() {
+        String source = "print 1 + 2 * 3; print \"a\" + 1; print -4 / 2; print 1 == 1; print 0 / 0 == 0 / 0;"
+                + "var sum = 0; for (var i = 0; i < 5; i = i + 1) { if (i == 3) break; sum = sum + i; } print sum;";
+        assertThat(run(source), is(lines("7", "a1", "-2", "true", "true", "3")));
+    }
+
+    @Test
+    void test_recursionAndInterpretedClosures() {
+        String source = "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); } print fib(15);"
+                + "fun makeCounter() { var i = 0; fun count() { i = i + 1; return i; } return count; }"
+                + "fun callTwice(f) { f(); return f(); } print callTwice(makeCounter());";
+        assertThat(run(source), is(lines("610", "2")));
+    }
+
+    @Test
+    void test_directCallFollowsReassignedGlobal() {
+        String source = "fun a() { return \"a\"; } fun b() { return \"b\"; } fun callA() { return a(); }"
+                + "print callA(); a = b; print callA();";
+        assertThat(run(source), is(lines("a", "b")));
+    }
+
+    @Test
+    void test_runtimeErrorsMatchInterpreter() {
+        LoxRuntimeError error = assertThrows(LoxRuntimeError.class, () -> run("fun f(a) { return a - 1; }\nf(\"x\");"));
+        assertThat(error.getMessage(), is("Operands must be numbers."));
+        assertThat(error.line, is(1));
+    }
+
+    @Test
+    void test_fuelBoundsCompiledLoopsAndCalls() {
+        Interpreter interpreter = new Interpreter();
+        interpreter.setFuel(new Fuel(1000));
+        ExecutionStoppedError error = assertThrows(ExecutionStoppedError.class,
+                () -> run("fun spin() { while (true) {} }\nspin();", interpreter));
+        assertThat(error.getMessage(), is("Execution ran out of fuel."));
+        assertThat(error.line, is(1));
+
+        interpreter.setFuel(new Fuel(1000));
+        assertThrows(ExecutionStoppedError.class, () -> run("fun f() { f(); } f();", interpreter));
+    }
+
+    @Test
+    void test_longScriptIsSplitIntoMethods() {
+        StringBuilder source = new StringBuilder("var x = 0;");
+        for (int i = 0; i < 6000; i++) {
+            source.append("x = x + 1;");
+        }
+        source.append("{ var y = 0;");
+        for (int i = 0; i < 6000; i++) {
+            source.append("y = y + 1;");
+        }
+        source.append("print x + y; }");
+        assertThat(run(source.toString()), is(lines("12000")));
+    }
+
+    @Test
+    void test_functionTooLargeToCompileIsInterpreted() {
+        StringBuilder source = new StringBuilder("fun f() { var x = 0;");
+        for (int i = 0; i < 6000; i++) {
+            source.append("x = x + 1;");
+        }
+        source.append("return x; } print f();");
+        assertThat(run(source.toString()), is(lines("6000")));
+    }
+
+    @Test
+    void test_functionWith255Parameters() {
+        StringJoiner parameters = new StringJoiner(", ");
+        StringJoiner arguments = new StringJoiner(", ");
+        for (int i = 0; i < 255; i++) {
+            parameters.add("p" + i);
+            arguments.add(String.valueOf(i));
+        }
+        String source = "fun f(" + parameters + ") { return p254; } print f(" + arguments + ");";
+        assertThat(run(source), is(lines("254")));
+    }
+
+    private static String run(String source) {
+        return run(source, new Interpreter());
+    }
+
+    private static String run(String source, Interpreter interpreter) {
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        new Resolver().resolve(statements);
+        Runnable script = new JvmCompiler(interpreter).compile(statements);
+
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true));
+        try {
+            script.run();
+        } finally {
+            System.setOut(stdout);
+        }
+        return out.toString();
+    }
+
+    private static String lines(String... lines) {
+        return String.join(System.lineSeparator(), lines) + System.lineSeparator();
+    }
+}
@@ -0,0 +1,105 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+class LoxContextTest {
+    @Test
+    void test_contextsRunSharedScriptConcurrently() throws Exception {
+        // fails with a runtime error if another context's calls changed count
+        String source = "var count = 0; fun increment(by) { count = count + by; }"
+                + "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }"
+                + "for (var i = 0; i < 1000; i = i + 1) increment(fib(5) - 4);"
+                + "if (count != 1000) count();";
+        Script script = new LoxContext(System.err).compile(source);
+        assertThat(script, is(notNullValue()));
+
+        ExecutorService workers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> runs = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                runs.add(workers.submit(() -> {
+                    LoxContext context = new LoxContext(new PrintStream(OutputStream.nullOutputStream()));
+                    return context.run(script).succeeded() && context.run(script).succeeded();
+                }));
+            }
+            for (Future<Boolean> run : runs) {
+                assertThat(run.get(), is(true));
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    @Test
+    void test_outputIsCapturedBySink() {
+        StringBuilder output = new StringBuilder();
+        LoxContext context = new LoxContext(OutputSink.of(output), System.err);
+        assertThat(context.run(context.compile("for (var i = 0; i < 3; i = i + 1) print i * 2;")).succeeded(), is(true));
+        assertThat(output.toString(), is(String.join(System.lineSeparator(), "0", "2", "4") + System.lineSeparator()));
+    }
+
+    @Test
+    void test_errorsAreReportedToTheirContext() {
+        ByteArrayOutputStream firstErrors = new ByteArrayOutputStream();
+        LoxContext first = new LoxContext(new PrintStream(firstErrors, true));
+        LoxContext second = new LoxContext(new PrintStream(OutputStream.nullOutputStream()));
+
+        assertThat(first.compile("print 1 +;"), is(nullValue()));
+        Script script = second.compile("var a = \"a\"; a = -a;");
+
+        assertThat(first.errors().hadError(), is(true));
+        assertThat(firstErrors.toString().trim(), is("[line 1] Error at ';': Expect expression."));
+        assertThat(second.errors().hadError(), is(false));
+        assertThat(second.run(script).succeeded(), is(false));
+        assertThat(second.errors().hadRuntimeError(), is(true));
+        assertThat(first.errors().hadRuntimeError(), is(false));
+    }
+
+    @Test
+    void test_failedCompileOrRunDoesNotFailTheNext() {
+        StringBuilder output = new StringBuilder();
+        LoxContext context = new LoxContext(OutputSink.of(output), new PrintStream(OutputStream.nullOutputStream()));
+
+        assertThat(context.compile("print 1 +;"), is(nullValue()));
+        Script script = context.compile("print 1;");
+        assertThat(script, is(notNullValue()));
+        assertThat(context.errors().hadError(), is(false));
+
+        assertThat(context.run(context.compile("nil();")).succeeded(), is(false));
+        assertThat(context.run(script).succeeded(), is(true));
+        assertThat(context.errors().hadRuntimeError(), is(false));
+        assertThat(output.toString().trim(), is("1"));
+    }
+
+    @Test
+    void test_runReportsTheHeapItUsed() {
+        LoxContext context = new LoxContext(new PrintStream(OutputStream.nullOutputStream()));
+        Script script = context.compile("fun f(n) { if (n > 0) f(n - 1); } f(99); f(99);");
+
+        LoxContext.Result result = context.run(script, Fuel.unmetered(), HeapAccount.unlimited());
+        assertThat(result.succeeded(), is(true));
+        assertThat(result.peakBytes(), is(HeapAccount.functionBytes(0) + 100 * HeapAccount.environmentBytes(1)));
+        assertThat(result.totalBytes(), is(HeapAccount.functionBytes(0) + 200 * HeapAccount.environmentBytes(1)));
+
+        // the frame that doesn't fit is released with the others
+        HeapAccount heap = new HeapAccount(HeapAccount.functionBytes(0) + 50 * HeapAccount.environmentBytes(1));
+        result = context.run(script, Fuel.unmetered(), heap);
+        assertThat(result.succeeded(), is(false));
+        assertThat(result.peakBytes(), is(HeapAccount.functionBytes(0) + 51 * HeapAccount.environmentBytes(1)));
+        assertThat(context.run(context.compile("f(49);"), Fuel.unmetered(), heap).succeeded(), is(true));
+    }
+}
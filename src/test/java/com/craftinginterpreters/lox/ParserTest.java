@@ -1,9 +1,12 @@
 package com.craftinginterpreters.lox;
 
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -11,9 +14,40 @@ import java.util.stream.Stream;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 class ParserTest {
+    @Test
+    void test_lazyFunctionBodiesAreParsedWhenRead() {
+        String source = "fun f(a) { { print a; } fun g() { return a; } return g; } var x = f(1);";
+
+        List<Stmt> lazy = new Parser(new Scanner(source).scanBuffer(), true, new ErrorReporter(System.err)).parse();
+        Stmt.Function function = (Stmt.Function) lazy.get(0);
+        assertThat(function.body, instanceOf(LazyBody.class));
+        assertThat(((LazyBody) function.body).isParsed(), is(false));
+
+        assertThat(lazy, is(new Parser(new Scanner(source).scanTokens()).parse()));
+        assertThat(((LazyBody) function.body).isParsed(), is(true));
+    }
+
+    @Test
+    void test_lazyBodyErrorsAreReportedAtTheirToken() {
+        for (String source : List.of("fun f() { print 1 print 2; }", "fun f() { { var; } }", "fun f() { var x = ; }")) {
+            ByteArrayOutputStream eager = new ByteArrayOutputStream();
+            new Parser(new Scanner(source).scanTokens(), new ErrorReporter(new PrintStream(eager, true))).parse();
+
+            ByteArrayOutputStream lazy = new ByteArrayOutputStream();
+            Stmt.Function function = (Stmt.Function) new Parser(new Scanner(source).scanBuffer(), true,
+                    new ErrorReporter(new PrintStream(lazy, true))).parse().get(0);
+            assertThat(lazy.size(), is(0));
+            assertThrows(LoxRuntimeError.class, function.body::size);
+            assertThat(lazy.toString(), is(eager.toString()));
+        }
+        assertThat(errors("fun f() { print 1 print 2; }"), is("[line 1] Error at 'print': Expect ';' after value."));
+    }
+
     @ParameterizedTest
     @MethodSource("parserTest")
     void parserTest(String source, Stmt expectedStmt) {
@@ -205,4 +239,12 @@ class ParserTest {
                 )
         );
     }
+
+    private static String errors(String source) {
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        Stmt.Function function = (Stmt.Function) new Parser(new Scanner(source).scanBuffer(), true,
+                new ErrorReporter(new PrintStream(errors, true))).parse().get(0);
+        assertThrows(LoxRuntimeError.class, function.body::size);
+        return errors.toString().trim();
+    }
 }
@@ -0,0 +1,54 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ProfilerTest {
+    @Test
+    void test_samplesAreCollapsedByStack() throws IOException {
+        List<Stmt> statements = new Parser(new Scanner("fun outer() {}\nfun inner() {}").scanTokens()).parse();
+        Stmt.Function outer = (Stmt.Function) statements.get(0);
+        Stmt.Function inner = (Stmt.Function) statements.get(1);
+
+        Profiler profiler = new Profiler(1);
+        profiler.sample();
+        profiler.enter(outer);
+        profiler.sample();
+        profiler.enter(inner);
+        profiler.sample();
+        profiler.sample();
+        profiler.exit();
+        profiler.exit();
+        profiler.sample();
+
+        StringWriter out = new StringWriter();
+        profiler.writeCollapsed(out);
+        assertThat(out.toString(), is("<script> 2\n<script>;outer:1 1\n<script>;outer:1;inner:2 2\n"));
+    }
+
+    @Test
+    void test_runtimeErrorUnwindsShadowStack() throws IOException {
+        String source = "fun fail() { return -\"a\"; } fun f() { fail(); } f();";
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        new Resolver().resolve(statements);
+
+        Interpreter interpreter = new Interpreter();
+        Profiler profiler = new Profiler(1);
+        interpreter.setProfiler(profiler);
+        statements.get(0).accept(interpreter);
+        statements.get(1).accept(interpreter);
+        assertThrows(LoxRuntimeError.class, () -> statements.get(2).accept(interpreter));
+
+        profiler.sample();
+        StringWriter out = new StringWriter();
+        profiler.writeCollapsed(out);
+        assertThat(out.toString(), is("<script> 1\n"));
+    }
+}
@@ -0,0 +1,75 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+class ProgramCacheTest {
+    private static final String SOURCE = "var a = 1; var b; var s = \"café\" + a;\n"
+            + "fun f(x, y) { if (x > y) return x; else { return -y; } }\n"
+            + "while (a < 10) { a = a + 1; if (a == 5) break; }\n"
+            + "print a == 5 ? f(a, 2) : (nil or !true and false); print clock; f(1, 2), f(3, 4); fun g() { return; }";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void test_programIsReadBackAsParsed() {
+        ProgramCache cache = new ProgramCache(directory);
+        byte[] source = SOURCE.getBytes(StandardCharsets.UTF_8);
+        List<Stmt> program = new ConstantFolder().fold(new Parser(new Scanner(SOURCE).scanTokens()).parse());
+
+        assertThat(cache.load(source), is(nullValue()));
+        cache.store(source, program);
+
+        assertThat(cache.load(source), is(program));
+        assertThat(cache.load("print 1;".getBytes(StandardCharsets.UTF_8)), is(nullValue()));
+    }
+
+    @Test
+    void test_unreadableEntryIsAMiss() throws IOException {
+        ProgramCache cache = new ProgramCache(directory);
+        byte[] source = SOURCE.getBytes(StandardCharsets.UTF_8);
+        cache.store(source, new Parser(new Scanner(SOURCE).scanTokens()).parse());
+
+        try (var entries = Files.list(directory)) {
+            Path entry = entries.findFirst().orElseThrow();
+            Files.write(entry, new byte[] {'L', 'O', 'X', 'C', 0, 0, 0});
+        }
+
+        assertThat(cache.load(source), is(nullValue()));
+    }
+
+    @Test
+    void test_corruptSizeIsAMiss() throws IOException {
+        ProgramCache cache = new ProgramCache(directory);
+        byte[] source = SOURCE.getBytes(StandardCharsets.UTF_8);
+        cache.store(source, new Parser(new Scanner(SOURCE).scanTokens()).parse());
+
+        Path entry;
+        try (var entries = Files.list(directory)) {
+            entry = entries.findFirst().orElseThrow();
+        }
+        byte[] header = Arrays.copyOf(Files.readAllBytes(entry), 8);
+        // a statement count of -1, then one of 2^28 - 1
+        for (byte[] size : new byte[][] {{-1, -1, -1, -1, 0x0f}, {-1, -1, -1, 0x7f}}) {
+            ByteArrayOutputStream corrupt = new ByteArrayOutputStream();
+            corrupt.write(header);
+            corrupt.write(size);
+            Files.write(entry, corrupt.toByteArray());
+
+            assertThat(cache.load(source), is(nullValue()));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class ResolverTest {
+    @Test
+    void test_globalsAreLeftUnresolved() {
+        List<Stmt> statements = resolve("var a = 1; a = a + 1;");
+
+        Expr.Assign assign = (Expr.Assign) ((Stmt.Expression) statements.get(1)).expression;
+        Expr.Variable variable = (Expr.Variable) ((Expr.Binary) assign.value).left;
+
+        assertThat(((Stmt.Var) statements.get(0)).slot, is(-1));
+        assertThat(assign.depth, is(Resolver.GLOBAL));
+        assertThat(variable.depth, is(Resolver.GLOBAL));
+    }
+
+    @Test
+    void test_blockLocalsGetDepthAndSlot() {
+        List<Stmt> statements = resolve("{ var a = 1; var b = 2; { print b; a = 3; } }");
+
+        Stmt.Block outer = (Stmt.Block) statements.get(0);
+        Stmt.Block inner = (Stmt.Block) outer.statements.get(2);
+        Expr.Variable b = (Expr.Variable) ((Stmt.Print) inner.statements.get(0)).expression;
+        Expr.Assign a = (Expr.Assign) ((Stmt.Expression) inner.statements.get(1)).expression;
+
+        assertThat(((Stmt.Var) outer.statements.get(0)).slot, is(0));
+        assertThat(((Stmt.Var) outer.statements.get(1)).slot, is(1));
+        assertThat(b.depth, is(1));
+        assertThat(b.slot, is(1));
+        assertThat(a.depth, is(1));
+        assertThat(a.slot, is(0));
+    }
+
+    @Test
+    void test_paramsShareScopeWithFunctionBody() {
+        List<Stmt> statements = resolve("fun f(x, y) { var z = y; print z; }");
+
+        Stmt.Function function = (Stmt.Function) statements.get(0);
+        Stmt.Var z = (Stmt.Var) function.body.get(0);
+        Expr.Variable y = (Expr.Variable) z.initializer;
+        Expr.Variable zRead = (Expr.Variable) ((Stmt.Print) function.body.get(1)).expression;
+
+        assertThat(y.depth, is(0));
+        assertThat(y.slot, is(1));
+        assertThat(z.slot, is(2));
+        assertThat(zRead.depth, is(0));
+        assertThat(zRead.slot, is(2));
+    }
+
+    @Test
+    void test_closureVariableIsCapturedFromEnclosingFunction() {
+        List<Stmt> statements = resolve(
+                "fun makeCounter() { var i = 0; var unused = 1; fun count() { i = i + 1; } return count; }");
+
+        Stmt.Function makeCounter = (Stmt.Function) statements.get(0);
+        Stmt.Function count = (Stmt.Function) makeCounter.body.get(2);
+        Expr.Assign assign = (Expr.Assign) ((Stmt.Expression) count.body.get(0)).expression;
+
+        assertThat(count.slot, is(2));
+        assertThat(assign.depth, is(Resolver.UPVALUE));
+        assertThat(assign.slot, is(0));
+        assertThat(count.captures.size(), is(1));
+        assertThat(count.captures.get(0).depth, is(0));
+        assertThat(count.captures.get(0).index, is(0));
+        assertThat(makeCounter.capturedSlots, is(new boolean[]{true, false, false}));
+    }
+
+    @Test
+    void test_upvaluesAreCapturedThroughIntermediateFunctions() {
+        List<Stmt> statements = resolve(
+                "fun outer() { var x = 1; { fun middle() { fun inner() { print x; } } } }");
+
+        Stmt.Function outer = (Stmt.Function) statements.get(0);
+        Stmt.Function middle = (Stmt.Function) ((Stmt.Block) outer.body.get(1)).statements.get(0);
+        Stmt.Function inner = (Stmt.Function) middle.body.get(0);
+        Expr.Variable x = (Expr.Variable) ((Stmt.Print) inner.body.get(0)).expression;
+
+        assertThat(x.depth, is(Resolver.UPVALUE));
+        assertThat(middle.captures.get(0).depth, is(1));
+        assertThat(inner.captures.get(0).depth, is(Resolver.UPVALUE));
+        assertThat(inner.captures.get(0).index, is(0));
+        assertThat(middle.capturedSlots == null, is(true));
+    }
+
+    @Test
+    void test_redeclaringLocalInSameScopeIsAnError() {
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        ErrorReporter reporter = new ErrorReporter(new PrintStream(errors, true));
+        List<Stmt> statements = new Parser(new Scanner("var a = 1; var a = 2;\n{ var b; var b; }\nfun f(c, c) {}").scanTokens()).parse();
+        new Resolver(reporter).resolve(statements);
+
+        // globals can still be redeclared
+        assertThat(errors.toString(), is(String.join(System.lineSeparator(),
+                "[line 2] Error at 'b': Variable with this name already declared in this scope.",
+                "[line 3] Error at 'c': Variable with this name already declared in this scope.", "")));
+    }
+
+    private static List<Stmt> resolve(String source) {
+        List<Token> tokens = new Scanner(source).scanTokens();
+        List<Stmt> statements = new Parser(tokens).parse();
+        new Resolver().resolve(statements);
+        return statements;
+    }
+}
@@ -0,0 +1,62 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RopeTest {
+    @Test
+    void test_longAppendChainFlattensInOrder() {
+        HeapAccount heap = HeapAccount.unlimited();
+        CharSequence text = "";
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) {
+            text = Rope.concat(text, Integer.toString(i % 10), heap, 1);
+            expected.append(i % 10);
+        }
+        text = Rope.concat("<", Rope.concat(text, ">", heap, 1), heap, 1);
+
+        assertThat(text, instanceOf(Rope.class));
+        assertThat(text.toString(), is("<" + expected + ">"));
+        // the nodes are counted as they're built, the characters once
+        assertThat(heap.totalBytes() < HeapAccount.stringBytes(text.length()) + 100_002 * HeapAccount.ropeBytes()
+                + Rope.MIN_LENGTH * HeapAccount.stringBytes(Rope.MIN_LENGTH), is(true));
+    }
+
+    @Test
+    void test_ropesEqualStringsWithTheSameCharacters() {
+        String half = "x".repeat(Rope.MIN_LENGTH);
+        CharSequence rope = Rope.concat(half, half, HeapAccount.unlimited(), 1);
+
+        assertThat(Values.isEqual(rope, half + half), is(true));
+        assertThat(Values.isEqual(half + half, rope), is(true));
+        assertThat(Values.isEqual(rope, half + "y" + half.substring(1)), is(false));
+        assertThat(Values.isEqual(rope, null), is(false));
+        assertThat(Values.stringify(rope), is(half + half));
+    }
+
+    @Test
+    void test_doublingStopsBeforeTheLongestString() {
+        HeapAccount heap = HeapAccount.unlimited();
+        assertThrows(LoxRuntimeError.class, () -> {
+            CharSequence text = "x";
+            for (;;) text = Rope.concat(text, text, heap, 1);
+        });
+        assertThat(heap.totalBytes() < 1 << 20, is(true));
+    }
+
+    @Test
+    void test_flatteningOverTheLimitStopsBeforeCopying() {
+        HeapAccount heap = new HeapAccount(1_000_000);
+        CharSequence text = "ab";
+        for (int i = 0; i < 27; i++) text = Rope.concat(text, text, heap, 1);
+        CharSequence huge = text;
+
+        // 2^28 characters, the copy alone would take 512 MB
+        ExecutionStoppedError error = assertThrows(ExecutionStoppedError.class, huge::toString);
+        assertThat(error.getMessage(), is("Execution ran out of memory."));
+    }
+}
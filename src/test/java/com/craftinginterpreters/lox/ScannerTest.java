@@ -3,6 +3,7 @@ package com.craftinginterpreters.lox;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.Test;
 
+import java.io.StringReader;
 import java.util.List;
 
 import static com.craftinginterpreters.lox.TokenType.*;
@@ -83,4 +84,48 @@ class ScannerTest {
                 new Token(EOF, "", null, 5)
         ));
     }
+
+    @Test
+    void test_scanReaderAcrossBufferBoundaries() {
+        StringBuilder source = new StringBuilder("var s = \"");
+        for (int i = 0; i < 10_000; i++) source.append('x');
+        source.append("\";\n/* a\n comment */\n");
+        for (int i = 0; i < 2_000; i++) source.append("print 1.5 >= s; // ").append(i).append('\n');
+
+        List<Token> tokens = new Scanner(new StringReader(source.toString())).scanTokens();
+
+        assertThat(tokens, Matchers.equalTo(new Scanner(source.toString()).scanTokens()));
+        assertThat(tokens.get(3).getLiteral().toString().length(), Matchers.is(10_000));
+    }
+
+    @Test
+    void test_scanBufferMatchesTokens() {
+        String source = "fun fib(n) { if (n <= 1) return n; return fib(n - 2) + fib(n - 1); }\n" +
+                "print fib(10) != \"fib\"; /* for fo forx */ var f = false or true and nil; while (this) break;";
+
+        TokenBuffer buffer = new Scanner(source).scanBuffer();
+
+        assertThat(buffer.tokens(), Matchers.equalTo(new Scanner(source).scanTokens()));
+        assertThat(buffer.type(buffer.size() - 1), Matchers.is(EOF));
+    }
+
+    @Test
+    void test_scanBufferInternsLexemes() {
+        TokenBuffer buffer = new Scanner("var count = count + count;").scanBuffer();
+
+        assertThat(buffer.lexeme(1), Matchers.is("count"));
+        assertThat(buffer.lexeme(3), Matchers.sameInstance(buffer.lexeme(1)));
+        assertThat(buffer.lexeme(5), Matchers.sameInstance(buffer.lexeme(1)));
+    }
+
+    @Test
+    void test_identifiersShareSymbolsAcrossScans() {
+        Token first = new Scanner("var counter;").scanTokens().get(1);
+        Token second = new Scanner(new StringReader("print counter;")).scanTokens().get(1);
+        Token third = new Scanner("counter = 1;").scanBuffer().token(0);
+
+        assertThat(second.getSymbol(), Matchers.sameInstance(first.getSymbol()));
+        assertThat(third.getSymbol(), Matchers.sameInstance(first.getSymbol()));
+        assertThat(first.getSymbol().name(), Matchers.is("counter"));
+    }
 }
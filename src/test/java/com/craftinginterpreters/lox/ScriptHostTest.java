@@ -0,0 +1,87 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ScriptHostTest {
+    @Test
+    void test_scriptsRunConcurrentlyWithTheirOwnOutput() throws Exception {
+        try (ScriptHost host = new ScriptHost(4, 10_000, 16)) {
+            List<CompletableFuture<ScriptHost.Result>> results = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                results.add(host.submit("var n = " + i + "; fun twice(x) { return 2 * x; } print twice(n);"));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                ScriptHost.Result result = results.get(i).get();
+                assertThat(result.status, is(ScriptHost.Status.OK));
+                assertThat(result.output, is(2 * i + System.lineSeparator()));
+            }
+
+            ScriptHost.Result error = host.submit("print -\"a\";").get();
+            assertThat(error.status, is(ScriptHost.Status.ERROR));
+            assertThat(error.errors, is("Operand must be a number.[line 1]" + System.lineSeparator()));
+        }
+    }
+
+    @Test
+    void test_slowScriptTimesOut() throws Exception {
+        try (ScriptHost host = new ScriptHost(1, 1, 16)) {
+            String source = "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); } print fib(24);";
+            assertThat(host.submit(source).get().status, is(ScriptHost.Status.TIMEOUT));
+        }
+    }
+
+    @Test
+    void test_timedOutScriptIsStopped() throws Exception {
+        try (ScriptHost host = new ScriptHost(1, 50, 16)) {
+            assertThat(host.submit("while (true) {}").get().status, is(ScriptHost.Status.TIMEOUT));
+            // only gets to run once the looping script gave back its permit
+            assertThat(host.submit("print 1;").get().output, is("1" + System.lineSeparator()));
+        }
+    }
+
+    @Test
+    void test_serveAnswersEveryRequest() throws Exception {
+        String requests = request("a", "print 1;") + request("b", "print 1 +;") + request("c", "print \"ü\";");
+        ByteArrayOutputStream responses = new ByteArrayOutputStream();
+        try (ScriptHost host = new ScriptHost(2, 10_000, 16)) {
+            host.serve(new ByteArrayInputStream(requests.getBytes(StandardCharsets.UTF_8)), responses);
+        }
+
+        String newline = System.lineSeparator();
+        String error = "[line 1] Error at ';': Expect expression." + newline;
+        List<String> lines = Arrays.asList(responses.toString(StandardCharsets.UTF_8).split("\n"));
+        assertThat(lines, containsInAnyOrder(
+                "a ok " + ("1" + newline).length() + " 0 0 0", "1" + newline.trim(),
+                "b error 0 " + error.length() + " 0 0", error.trim(),
+                "c ok " + ("ü" + newline).getBytes(StandardCharsets.UTF_8).length + " 0 0 0", "ü" + newline.trim()));
+    }
+
+    @Test
+    void test_serveRejectsMalformedLength() {
+        for (String header : List.of("a x\n", "a -1\n", "a 99999999999\n")) {
+            try (ScriptHost host = new ScriptHost(2, 10_000, 16)) {
+                IOException error = assertThrows(IOException.class, () -> host.serve(
+                        new ByteArrayInputStream(header.getBytes(StandardCharsets.UTF_8)), new ByteArrayOutputStream()));
+                assertThat(error.getMessage(), is("Malformed request header '" + header.trim() + "'"));
+            }
+        }
+    }
+
+    private static String request(String id, String source) {
+        return id + " " + source.getBytes(StandardCharsets.UTF_8).length + "\n" + source;
+    }
+}
@@ -0,0 +1,83 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class VMTest {
+    @Test
+    void test_arithmeticAndStrings() {
+        assertThat(run("print 1 + 2 * 3; print \"a\" + 1; print -4 / 2; print 1 == 1;"),
+                is(lines("7", "a1", "-2", "true")));
+    }
+
+    @Test
+    void test_localsGlobalsAndLoops() {
+        assertThat(run("var sum = 0; for (var i = 0; i < 5; i = i + 1) { if (i == 3) break; sum = sum + i; } print sum;"),
+                is(lines("3")));
+    }
+
+    @Test
+    void test_recursionAndClosures() {
+        String source = "fun fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); } print fib(15);"
+                + "fun makeCounter() { var i = 0; fun count() { i = i + 1; return i; } return count; }"
+                + "var c = makeCounter(); c(); print c();";
+        assertThat(run(source), is(lines("610", "2")));
+    }
+
+    @Test
+    void test_fuelBoundsLoopsAndCalls() {
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        VM vm = new VM(new ErrorReporter(new PrintStream(errors, true)));
+        vm.setFuel(new Fuel(3));
+        assertThat(run("var i = 0;\nwhile (true) { print i; i = i + 1; }", vm), is(lines("0", "1", "2", "3")));
+
+        vm.setFuel(new Fuel(2));
+        assertThat(run("fun f(n) { print n; f(n + 1); }\nf(0);", vm), is(lines("0", "1")));
+        assertThat(errors.toString(), is(lines("Execution ran out of fuel.[line 2]", "Execution ran out of fuel.[line 1]")));
+    }
+
+    @Test
+    void test_heapLimitStopsConcatenation() {
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        VM vm = new VM(new ErrorReporter(new PrintStream(errors, true)));
+        vm.setHeap(new HeapAccount(1 << 20));
+        run("var s = \"x\";\nwhile (true) { s = s + s; print s; }", vm);
+        assertThat(errors.toString(), is(lines("Execution ran out of memory.[line 2]")));
+
+        vm = new VM(new ErrorReporter(new PrintStream(errors, true)));
+        vm.setHeap(new HeapAccount(1_000_000));
+        String source = "var i = 0; while (i < 100000) { var s = \"0123456789\" + i; i = i + 1; } print i;";
+        assertThat(run(source, vm), is(lines("100000")));
+    }
+
+    private static String run(String source) {
+        return run(source, new VM());
+    }
+
+    private static String run(String source, VM vm) {
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        new Resolver().resolve(statements);
+
+        VmFunction script = new BytecodeCompiler(vm.globals).compile(statements);
+
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true));
+        try {
+            vm.interpret(script);
+        } finally {
+            System.setOut(stdout);
+        }
+        return out.toString();
+    }
+
+    private static String lines(String... lines) {
+        return String.join(System.lineSeparator(), lines) + System.lineSeparator();
+    }
+}
@@ -0,0 +1,36 @@
+package com.craftinginterpreters.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+class ValuesTest {
+    @Test
+    void test_numbersFormatLikeDoubleToStringWithoutTrailingZero() {
+        double[] numbers = {0.0, -0.0, 1, -1, 42, 0.5, -2.25, 1e-3, 9.99e-4, 9_999_999, -9_999_999, 1e7, -1e7,
+                123456789, 1e21, 0.1 + 0.2, Long.MAX_VALUE, Long.MIN_VALUE, 0x1p53, Double.MIN_VALUE, Double.MAX_VALUE,
+                Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (double number : numbers) {
+            assertFormatted(number);
+        }
+
+        Random random = new Random(25);
+        for (int i = 0; i < 100_000; i++) {
+            assertFormatted(random.nextInt(40_000_000) - 20_000_000);
+            assertFormatted(Double.longBitsToDouble(random.nextLong()));
+        }
+    }
+
+    private static void assertFormatted(double number) {
+        String expected = Double.toString(number);
+        if (expected.endsWith(".0")) expected = expected.substring(0, expected.length() - 2);
+
+        assertThat(Values.formatNumber(number), is(expected));
+        StringBuilder builder = new StringBuilder("x");
+        Values.appendNumber(builder, number);
+        assertThat(builder.toString(), is("x" + expected));
+    }
+}